@@ -1,7 +1,6 @@
 package ru.ydn.wicket.wicketorientdb;
 
 
-import com.orientechnologies.orient.core.db.ODatabasePool;
 import com.orientechnologies.orient.core.db.ODatabaseSession;
 
 import org.apache.wicket.Application;
@@ -41,8 +40,7 @@ public abstract class AbstractDataInstallator implements IApplicationListener
 		IOrientDbSettings settings = app.getOrientDbSettings();
 		String username = settings.getAdminUserName();
 		String password = settings.getAdminPassword();
-		ODatabasePool pool = settings.getContext().cachedPool(settings.getDbName(), username, password);
-		return pool.acquire();
+		return settings.acquireDatabaseSession(settings.getDbName(), username, password);
 	}
 	
 	protected abstract void installData(OrientDbWebApplication app, ODatabaseSession db);
@@ -38,6 +38,6 @@ public class DefaultODatabaseThreadLocalFactory implements ODatabaseThreadLocalF
 			username = settings.getGuestUserName();
 			password = settings.getGuestPassword();
 		}
-		return (ODatabaseDocumentInternal) settings.getContext().cachedPool(settings.getDbName(), username, password).acquire();
+		return (ODatabaseDocumentInternal) settings.acquireDatabaseSession(settings.getDbName(), username, password);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package ru.ydn.wicket.wicketorientdb;
+
+import org.apache.wicket.request.IRequestHandler;
+
+/**
+ * Marker for {@link IRequestHandler}s which can be safely executed again if commit of a transaction failed due to concurrent modification.
+ * See {@link TransactionRetryPolicy}
+ */
+public interface IIdempotentRequestHandler extends IRequestHandler {
+
+}
@@ -1,12 +1,17 @@
 package ru.ydn.wicket.wicketorientdb;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import com.orientechnologies.orient.core.db.*;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.hook.ORecordHook;
 
 import okhttp3.OkHttpClient;
+import ru.ydn.wicket.wicketorientdb.utils.DBClosure;
 
 /**
  * OrientDB setting to be used in Wicket-OrientDB application
@@ -120,7 +125,94 @@ public interface IOrientDbSettings {
 	 * @param classes to be added
 	 */
 	public void removeORecordHooks(Class<? extends ORecordHook>...classes);
+	
+	/**
+	 * @return version of the list of hooks: it's changed upon every addition or removal of hooks.
+	 * Negative value means that version is not tracked, so hooks are checked upon every registration
+	 */
+	public default long getORecordHooksVersion() {
+		return -1;
+	}
 
 	OrientDB getContext();
 	void setContext(OrientDB orientDB);
+	
+	/**
+	 * @return default {@link OrientDBConfig} for pools of database sessions: min/max size and acquire timeout
+	 */
+	public default OrientDBConfig getPoolConfig() {
+		return null;
+	}
+	
+	/**
+	 * Set default {@link OrientDBConfig} for pools of database sessions. Config is applied to newly created pools only
+	 * @param config {@link OrientDBConfig} to use
+	 */
+	public default void setPoolConfig(OrientDBConfig config) {
+		throw new UnsupportedOperationException("Pools configuration is not supported by "+getClass().getName());
+	}
+	
+	/**
+	 * @param username name of a user
+	 * @return {@link OrientDBConfig} for pool of the user or default one if there is no override for the user
+	 */
+	public default OrientDBConfig getPoolConfig(String username) {
+		return getPoolConfig();
+	}
+	
+	/**
+	 * Override {@link OrientDBConfig} for pool of a user. All guest sessions share single pool of the guest user,
+	 * so it can be configured by override for {@link #getGuestUserName()}
+	 * @param username name of a user
+	 * @param config {@link OrientDBConfig} to use or null to remove override
+	 */
+	public default void setPoolConfig(String username, OrientDBConfig config) {
+		throw new UnsupportedOperationException("Pools configuration is not supported by "+getClass().getName());
+	}
+	
+	/**
+	 * Acquire database session from a cached pool configured according to {@link #getPoolConfig(String)}
+	 * @param dbName name of a database
+	 * @param username name of a user
+	 * @param password password of a user
+	 * @return acquired {@link ODatabaseSession}
+	 */
+	public default ODatabaseSession acquireDatabaseSession(String dbName, String username, String password) {
+		return getContext().cachedPool(dbName, username, password).acquire();
+	}
+	
+	/**
+	 * @return gauges of pools used by {@link #acquireDatabaseSession(String, String, String)}
+	 */
+	public default Collection<ODatabasePoolStatistics> getPoolStatistics() {
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Close pools created by {@link #acquireDatabaseSession(String, String, String)}: for example, upon application shutdown
+	 */
+	public default void closePools() {
+	}
+	
+	/**
+	 * @return {@link Executor} for asynchronous execution of {@link DBClosure}s
+	 */
+	public default Executor getClosureExecutor() {
+		return ForkJoinPool.commonPool();
+	}
+	
+	/**
+	 * Set {@link Executor} for asynchronous execution of {@link DBClosure}s: for example, executor of virtual threads
+	 * @param executor {@link Executor} to be used
+	 */
+	public default void setClosureExecutor(Executor executor) {
+		throw new UnsupportedOperationException("Closure executor can't be changed for "+getClass().getName());
+	}
+	
+	/**
+	 * Shutdown default {@link Executor} for asynchronous execution of {@link DBClosure}s if it was created.
+	 * Running closures are given some time to complete. {@link Executor} which was set explicitly is not affected
+	 */
+	public default void shutdownClosureExecutor() {
+	}
 }
@@ -0,0 +1,20 @@
+package ru.ydn.wicket.wicketorientdb;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks page or resource which can be safely executed again if commit of its transaction failed due to concurrent modification.
+ * See {@link TransactionRetryPolicy}
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface IdempotentRequest {
+
+}
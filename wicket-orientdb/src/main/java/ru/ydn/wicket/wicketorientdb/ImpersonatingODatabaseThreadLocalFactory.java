@@ -0,0 +1,142 @@
+package ru.ydn.wicket.wicketorientdb;
+
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabasePool;
+import com.orientechnologies.orient.core.db.ODatabaseThreadLocalFactory;
+import com.orientechnologies.orient.core.db.OrientDBConfig;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.exception.OSecurityAccessException;
+import com.orientechnologies.orient.core.metadata.security.OSecurityUser;
+import com.orientechnologies.orient.core.metadata.security.OUser;
+
+import ru.ydn.wicket.wicketorientdb.utils.ODbUtils;
+
+/**
+ * Implementation of {@link ODatabaseThreadLocalFactory} which obtains all {@link ODatabaseDocument}s from a single pool
+ * of a privileged service account and then switches effective user of the database to the user of current session.
+ * So number of pools and cost of their creation don't depend on number of users.
+ * To enable: app.getOrientDbSettings().setDatabaseThreadLocalFactory(new ImpersonatingODatabaseThreadLocalFactory(app));
+ */
+public class ImpersonatingODatabaseThreadLocalFactory implements ODatabaseThreadLocalFactory
+{
+	private final OrientDbWebApplication app;
+	private final String serviceUsername;
+	private final String servicePassword;
+	private volatile ODatabasePool pool;
+	private final ODatabasePoolStatistics statistics;
+	
+	/**
+	 * Use admin of {@link IOrientDbSettings} as the service account
+	 * @param app {@link OrientDbWebApplication} to use settings of
+	 */
+	public ImpersonatingODatabaseThreadLocalFactory(OrientDbWebApplication app)
+	{
+		this(app, app.getOrientDbSettings().getAdminUserName(), app.getOrientDbSettings().getAdminPassword());
+	}
+	
+	public ImpersonatingODatabaseThreadLocalFactory(OrientDbWebApplication app, String serviceUsername, String servicePassword)
+	{
+		this.app = app;
+		this.serviceUsername = serviceUsername;
+		this.servicePassword = servicePassword;
+		this.statistics = new ODatabasePoolStatistics(app.getOrientDbSettings().getDbName(), serviceUsername);
+	}
+	
+	@Override
+	public ODatabaseDocumentInternal getThreadDatabase() {
+		OrientDbWebSession session = OrientDbWebSession.exists()?OrientDbWebSession.get():null;
+		String username = session!=null && session.isSignedIn()?session.getUsername():app.getOrientDbSettings().getGuestUserName();
+		return impersonate(acquire(), username);
+	}
+	
+	/**
+	 * Check credentials of a user and obtain database for that user
+	 * @param username name of a user
+	 * @param password password of a user
+	 * @return database with effective user set to the authenticated one
+	 * @throws OSecurityAccessException if credentials are wrong or user is not active
+	 */
+	public ODatabaseDocumentInternal authenticate(String username, String password) {
+		ODatabaseDocumentInternal db = acquire();
+		OUser user = db.getMetadata().getSecurity().getUser(username);
+		if(user==null || user.getAccountStatus()!=OSecurityUser.STATUSES.ACTIVE || !user.checkPassword(password)) {
+			String dbName = db.getName();
+			db.close();
+			throw new OSecurityAccessException(dbName, "User or password not valid for username: " + username);
+		}
+		db.setUser(user);
+		return db;
+	}
+	
+	/**
+	 * Switch effective user of the database
+	 * @param db database acquired for the service account
+	 * @param username name of a user to impersonate
+	 * @return the same database
+	 */
+	protected ODatabaseDocumentInternal impersonate(ODatabaseDocumentInternal db, String username) {
+		if(username==null || username.equals(serviceUsername)) return db;
+		OUser user = db.getMetadata().getSecurity().getUser(username);
+		if(user==null || user.getAccountStatus()!=OSecurityUser.STATUSES.ACTIVE) {
+			String dbName = db.getName();
+			db.close();
+			throw new OSecurityAccessException(dbName, "User '"+username+"' can't be impersonated");
+		}
+		db.setUser(user);
+		return db;
+	}
+	
+	/**
+	 * Acquire database from the pool of the service account. Effective user of the acquired database is reset to the service account,
+	 * because pooled databases keep user of previous usage. Hooks of {@link IOrientDbSettings} are registered as for
+	 * {@link IOrientDbSettings#acquireDatabaseSession(String, String, String)}
+	 * @return database for the service account
+	 */
+	protected ODatabaseDocumentInternal acquire() {
+		ODatabaseDocumentInternal db = (ODatabaseDocumentInternal) statistics.acquire(getPool());
+		IOrientDbSettings settings = app.getOrientDbSettings();
+		ODbUtils.registerHooks(db, settings.getORecordHooks(), settings.getORecordHooksVersion());
+		OSecurityUser user = db.getUser();
+		if(user==null || !serviceUsername.equals(user.getName())) {
+			db.setUser(db.getMetadata().getSecurity().getUser(serviceUsername));
+		}
+		return db;
+	}
+	
+	/**
+	 * @return dedicated pool of the service account: it's not shared with cached pools of {@link IOrientDbSettings}
+	 */
+	protected ODatabasePool getPool() {
+		ODatabasePool ret = pool;
+		if(ret==null || ret.isClosed()) {
+			synchronized (this) {
+				ret = pool;
+				if(ret==null || ret.isClosed()) {
+					IOrientDbSettings settings = app.getOrientDbSettings();
+					OrientDBConfig config = settings.getPoolConfig(serviceUsername);
+					ret = config!=null?new ODatabasePool(settings.getContext(), settings.getDbName(), serviceUsername, servicePassword, config)
+									  :new ODatabasePool(settings.getContext(), settings.getDbName(), serviceUsername, servicePassword);
+					pool = ret;
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return gauges of the pool of the service account
+	 */
+	public ODatabasePoolStatistics getPoolStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Close pool of the service account
+	 */
+	public synchronized void close() {
+		if(pool!=null) {
+			pool.close();
+			pool = null;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package ru.ydn.wicket.wicketorientdb;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Base64;
 
 import org.apache.wicket.MetaDataKey;
@@ -9,9 +11,12 @@ import org.apache.wicket.request.cycle.IRequestCycleListener;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.apache.wicket.request.http.WebRequest;
 
+import ru.ydn.wicket.wicketorientdb.security.VerifiedCredentialsCache;
+
 /**
  * {@link IRequestCycleListener} for transparent/lazy authentication of a request.
  * It checks for HTTP Basic Authentication header and authorize if it's present.
+ * Recently verified credentials are not verified again: see {@link VerifiedCredentialsCache}
  */
 public class LazyAuthorizationRequestCycleListener implements IRequestCycleListener {
 	
@@ -41,14 +46,32 @@ public class LazyAuthorizationRequestCycleListener implements IRequestCycleListe
                 String userName = pair[0]; 
                 String password = pair[1]; 
                 OrientDbWebSession session = OrientDbWebSession.get();
-                if(!session.signIn(userName, password))
+                VerifiedCredentialsCache credentialsCache = VerifiedCredentialsCache.get();
+                boolean authorized;
+                if(credentialsCache.isVerified(userName, password))
+                {
+                	authorized = (session.isSignedIn() && userName.equals(session.getUsername()) && isSamePassword(password, session.getPassword()))
+                					|| session.signInVerified(userName, password);
+                }
+                else
                 {
+                	authorized = session.signIn(userName, password);
+                	if(authorized) credentialsCache.verified(userName, password);
+                }
+                if(!authorized)
+                {
+                	credentialsCache.invalidate(userName);
                 	cycle.setMetaData(LAZY_AUTHORIZED, false);
                 }
             }
 		}
 	}
 
+	private static boolean isSamePassword(String password, String sessionPassword) {
+		return sessionPassword!=null
+				&& MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), sessionPassword.getBytes(StandardCharsets.UTF_8));
+	}
+
 	@Override
 	public void onRequestHandlerResolved(RequestCycle cycle,
 			IRequestHandler handler) {
@@ -0,0 +1,158 @@
+package ru.ydn.wicket.wicketorientdb;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.orientechnologies.common.concur.resource.OResourcePool;
+import com.orientechnologies.orient.core.db.ODatabasePool;
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.exception.OAcquireTimeoutException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gauges of a pool of database sessions for a single user of a single database: see {@link IOrientDbSettings#acquireDatabaseSession(String, String, String)}.
+ * Size of a pool is obtained from internals of OrientDB, so it's -1 if the pool doesn't expose it.
+ */
+@Slf4j
+public class ODatabasePoolStatistics {
+	
+	private static final Field POOL_INTERNAL_FIELD = getField(ODatabasePool.class, "internal");
+	
+	private final String dbName;
+	private final String username;
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private volatile ODatabasePool pool;
+	
+	public ODatabasePoolStatistics(String dbName, String username) {
+		this.dbName = dbName;
+		this.username = username;
+	}
+	
+	/**
+	 * Acquire database session from the pool and update gauges
+	 * @param pool pool to acquire session from
+	 * @return acquired {@link ODatabaseSession}
+	 */
+	public ODatabaseSession acquire(ODatabasePool pool) {
+		this.pool = pool;
+		long start = System.nanoTime();
+		try {
+			ODatabaseSession ret = pool.acquire();
+			acquired.incrementAndGet();
+			return ret;
+		} catch (OAcquireTimeoutException e) {
+			timeouts.incrementAndGet();
+			throw e;
+		} finally {
+			long wait = System.nanoTime() - start;
+			waitNanos.addAndGet(wait);
+			maxWaitNanos.accumulateAndGet(wait, Math::max);
+		}
+	}
+	
+	public String getDbName() {
+		return dbName;
+	}
+	
+	public String getUsername() {
+		return username;
+	}
+	
+	/**
+	 * @return number of acquired sessions
+	 */
+	public long getAcquiredCount() {
+		return acquired.get();
+	}
+	
+	/**
+	 * @return number of failed acquisitions due to timeout
+	 */
+	public long getTimeoutsCount() {
+		return timeouts.get();
+	}
+	
+	/**
+	 * @param unit {@link TimeUnit} of the result
+	 * @return total time spent for waiting of sessions
+	 */
+	public long getTotalWaitTime(TimeUnit unit) {
+		return unit.convert(waitNanos.get(), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @param unit {@link TimeUnit} of the result
+	 * @return maximal time spent for waiting of a session
+	 */
+	public long getMaxWaitTime(TimeUnit unit) {
+		return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @return number of sessions created by the pool or -1
+	 */
+	public int getPoolSize() {
+		OResourcePool<?, ?> resourcePool = getResourcePool();
+		return resourcePool!=null?resourcePool.getCreatedInstances():-1;
+	}
+	
+	/**
+	 * @return number of sessions which are currently acquired from the pool or -1
+	 */
+	public int getInUseCount() {
+		OResourcePool<?, ?> resourcePool = getResourcePool();
+		return resourcePool!=null?resourcePool.getResourcesOutCount():-1;
+	}
+	
+	/**
+	 * @return number of sessions which are available in the pool without creation or -1
+	 */
+	public int getIdleCount() {
+		OResourcePool<?, ?> resourcePool = getResourcePool();
+		return resourcePool!=null?resourcePool.getInPoolResources():-1;
+	}
+	
+	/**
+	 * @return maximal size of the pool or -1
+	 */
+	public int getMaxPoolSize() {
+		OResourcePool<?, ?> resourcePool = getResourcePool();
+		return resourcePool!=null?resourcePool.getMaxResources():-1;
+	}
+	
+	private OResourcePool<?, ?> getResourcePool() {
+		ODatabasePool pool = this.pool;
+		if(pool==null || pool.isClosed() || POOL_INTERNAL_FIELD==null) return null;
+		try {
+			Object internal = POOL_INTERNAL_FIELD.get(pool);
+			if(internal==null) return null;
+			Field resourcePoolField = getField(internal.getClass(), "pool");
+			Object ret = resourcePoolField!=null?resourcePoolField.get(internal):null;
+			return ret instanceof OResourcePool?(OResourcePool<?, ?>)ret:null;
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+	
+	private static Field getField(Class<?> clazz, String name) {
+		try {
+			Field field = clazz.getDeclaredField(name);
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e) {
+			log.debug("Field '"+name+"' is not accessible in "+clazz.getName(), e);
+			return null;
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "ODatabasePoolStatistics [dbName=" + dbName + ", username=" + username + ", acquired=" + acquired 
+				+ ", timeouts=" + timeouts + ", poolSize=" + getPoolSize() + ", inUse=" + getInUseCount() + "]";
+	}
+}
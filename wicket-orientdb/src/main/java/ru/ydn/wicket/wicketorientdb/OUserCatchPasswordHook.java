@@ -1,11 +1,19 @@
 package ru.ydn.wicket.wicketorientdb;
 
+import java.util.HashSet;
+import java.util.Set;
+
+import com.orientechnologies.orient.core.command.OCommandExecutor;
+import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.db.ODatabase;
+import com.orientechnologies.orient.core.db.ODatabaseListener;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.security.OSecurityManager;
 
 import ru.ydn.wicket.wicketorientdb.components.IHookPosition;
+import ru.ydn.wicket.wicketorientdb.security.VerifiedCredentialsCache;
 
 
 /**
@@ -13,6 +21,49 @@ import ru.ydn.wicket.wicketorientdb.components.IHookPosition;
 */
 public class OUserCatchPasswordHook extends ODocumentHookAbstract implements IHookPosition {
 
+	private final PendingInvalidations pendingInvalidations = new PendingInvalidations();
+	
+	/**
+	 * Invalidates verified credentials of users changed in a transaction after end of the transaction
+	 */
+	private static class PendingInvalidations implements ODatabaseListener {
+		private final Set<String> names = new HashSet<String>();
+		
+		private void invalidate() {
+			VerifiedCredentialsCache cache = VerifiedCredentialsCache.get();
+			for (String name : names) cache.invalidate(name);
+			names.clear();
+		}
+		
+		@Override
+		public void onAfterTxCommit(ODatabase iDatabase) {
+			invalidate();
+		}
+		
+		@Override
+		public void onAfterTxRollback(ODatabase iDatabase) {
+			invalidate();
+		}
+		
+		@Override
+		public void onCreate(ODatabase iDatabase) {/*NOP*/}
+		@Override
+		public void onDelete(ODatabase iDatabase) {/*NOP*/}
+		@Override
+		public void onOpen(ODatabase iDatabase) {/*NOP*/}
+		@Override
+		public void onBeforeTxBegin(ODatabase iDatabase) {/*NOP*/}
+		@Override
+		public void onBeforeTxRollback(ODatabase iDatabase) {/*NOP*/}
+		@Override
+		public void onBeforeTxCommit(ODatabase iDatabase) {/*NOP*/}
+		@Override
+		public void onClose(ODatabase iDatabase) {/*NOP*/}
+		@Override
+		public void onBeforeCommand(OCommandRequestText iCommand, OCommandExecutor executor) {/*NOP*/}
+		@Override
+		public void onAfterCommand(OCommandRequestText iCommand, OCommandExecutor executor, Object result) {/*NOP*/}
+	}
 	
 	public OUserCatchPasswordHook(ODatabaseDocument database){
 		super(database);
@@ -23,6 +74,7 @@ public class OUserCatchPasswordHook extends ODocumentHookAbstract implements IHo
 	public RESULT onRecordBeforeUpdate(final ODocument iDocument) {
 		String name = iDocument.field("name");
 		String password = iDocument.field("password");
+		invalidateCredentials(name);
 		
 		if (password.startsWith(OSecurityManager.HASH_ALGORITHM_PREFIX) 
 				|| password.startsWith(OSecurityManager.PBKDF2_ALGORITHM_PREFIX)
@@ -48,6 +100,24 @@ public class OUserCatchPasswordHook extends ODocumentHookAbstract implements IHo
 		return RESULT.RECORD_NOT_CHANGED;
 	}
 	
+	@Override
+	public void onRecordAfterDelete(ODocument iDocument) {
+		invalidateCredentials(iDocument.field("name"));
+	}
+	
+	/**
+	 * Invalidate verified credentials right now and, if there is a transaction, after its commit:
+	 * old credentials might be verified again by concurrent request before commit of changes
+	 * @param name name of a user
+	 */
+	private void invalidateCredentials(String name) {
+		VerifiedCredentialsCache.get().invalidate(name);
+		if(database!=null && database.getTransaction().isActive()) {
+			pendingInvalidations.names.add(name);
+			database.registerListener(pendingInvalidations);
+		}
+	}
+	
 	@Override
 	public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
 		return DISTRIBUTED_EXECUTION_MODE.TARGET_NODE;
@@ -1,14 +1,30 @@
 package ru.ydn.wicket.wicketorientdb;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
 import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.*;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.hook.ORecordHook;
@@ -33,6 +49,10 @@ public class OrientDbSettings implements IOrientDbSettings
 	public static final String ADMIN_DEFAULT_PASSWORD = "admin";
 	public static final String READER_DEFAULT_USERNAME = "reader";
 	public static final String READER_DEFAULT_PASSWORD = "reader";
+	public static final int CLOSURE_EXECUTOR_QUEUE_SIZE = 1000;
+	public static final int CLOSURE_EXECUTOR_SHUTDOWN_TIMEOUT_SECONDS = 10;
+	public static final int MAX_CONFIGURED_POOLS = 100;
+	public static final int POOL_EXPIRE_AFTER_ACCESS_MINUTES = 30;
 
 	private String dbName;
 	private ODatabaseType dbType;
@@ -44,9 +64,24 @@ public class OrientDbSettings implements IOrientDbSettings
 	private OkHttpClient okHttpClient;
 
 	private OrientDB context;
+	
+	private OrientDBConfig poolConfig;
+	private final Map<String, OrientDBConfig> userPoolConfigs = new ConcurrentHashMap<String, OrientDBConfig>();
+	private final Cache<String, ODatabasePool> configuredPools = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CONFIGURED_POOLS)
+			.expireAfterAccess(POOL_EXPIRE_AFTER_ACCESS_MINUTES, TimeUnit.MINUTES)
+			.removalListener((RemovalNotification<String, ODatabasePool> n) -> closePool(n.getValue()))
+			.build();
+	private final Cache<String, ODatabasePoolStatistics> poolStatistics = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CONFIGURED_POOLS)
+			.expireAfterAccess(POOL_EXPIRE_AFTER_ACCESS_MINUTES, TimeUnit.MINUTES)
+			.build();
+	private volatile Executor closureExecutor;
+	private Executor defaultClosureExecutor;
 
 	private List<Class<? extends ORecordHook>> oRecordHooks;
 	private List<Class<? extends ORecordHook>> unmodifiableORecordHooks;
+	private final AtomicLong oRecordHooksVersion = new AtomicLong();
 
 	public OrientDbSettings() {
 		super();
@@ -130,6 +165,7 @@ public class OrientDbSettings implements IOrientDbSettings
 	public void addORecordHooks(Class<? extends ORecordHook>... classes) {
 		List<Class<? extends ORecordHook>> hooks = Arrays.asList(classes);
 		oRecordHooks.addAll(hooks);
+		oRecordHooksVersion.incrementAndGet();
 		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
 		if (db != null) {
 			ODbUtils.registerHooks((ODatabaseInternal<?>) db, hooks);
@@ -141,12 +177,18 @@ public class OrientDbSettings implements IOrientDbSettings
 	public void removeORecordHooks(Class<? extends ORecordHook>... classes) {
 		List<Class<? extends ORecordHook>> hooks = Arrays.asList(classes);
 		oRecordHooks.removeAll(hooks);
+		oRecordHooksVersion.incrementAndGet();
 		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
 		if (db != null) {
 			ODbUtils.unregisterHooks((ODatabaseInternal<?>) db, hooks);
 		}
 	}
 
+	@Override
+	public long getORecordHooksVersion() {
+		return oRecordHooksVersion.get();
+	}
+
 	@Override
 	public OrientDB getContext() {
 		return context;
@@ -158,6 +200,152 @@ public class OrientDbSettings implements IOrientDbSettings
 	}
 
 
+	@Override
+	public OrientDBConfig getPoolConfig() {
+		return poolConfig;
+	}
+	
+	@Override
+	public void setPoolConfig(OrientDBConfig config) {
+		this.poolConfig = config;
+	}
+	
+	@Override
+	public OrientDBConfig getPoolConfig(String username) {
+		OrientDBConfig ret = username!=null?userPoolConfigs.get(username):null;
+		return ret!=null?ret:poolConfig;
+	}
+	
+	@Override
+	public void setPoolConfig(String username, OrientDBConfig config) {
+		if(config!=null) userPoolConfigs.put(username, config);
+		else userPoolConfigs.remove(username);
+	}
+	
+	@Override
+	public ODatabaseSession acquireDatabaseSession(String dbName, String username, String password) {
+		ODatabasePool pool = getPool(dbName, username, password);
+		ODatabasePoolStatistics statistics = poolStatistics.asMap().computeIfAbsent(dbName+"/"+username, 
+																k -> new ODatabasePoolStatistics(dbName, username));
+		ODatabaseSession db = statistics.acquire(pool);
+		//Pooled instances are not opened again, so hooks added after creation of an instance should be registered here
+		if(db instanceof ODatabaseInternal) ODbUtils.registerHooks((ODatabaseInternal<?>) db, getORecordHooks(), getORecordHooksVersion());
+		return db;
+	}
+	
+	/**
+	 * Obtain pool of database sessions. Cached pools of OrientDB always override maximal size of a pool,
+	 * so pools with explicit {@link OrientDBConfig} are created and cached here.
+	 * Number of such pools is bounded: evicted and idle pools are closed
+	 * @param dbName name of a database
+	 * @param username name of a user
+	 * @param password password of a user
+	 * @return {@link ODatabasePool} for the user
+	 */
+	protected ODatabasePool getPool(String dbName, String username, String password) {
+		OrientDBConfig config = getPoolConfig(username);
+		if(config==null) return context.cachedPool(dbName, username, password);
+		String key = dbName+"/"+username+"/"+Hashing.sha256().hashString(password, StandardCharsets.UTF_8);
+		ODatabasePool pool = configuredPools.getIfPresent(key);
+		if(pool==null || pool.isClosed()) {
+			synchronized (configuredPools) {
+				pool = configuredPools.getIfPresent(key);
+				if(pool==null || pool.isClosed()) {
+					pool = new ODatabasePool(context, dbName, username, password, config);
+					configuredPools.put(key, pool);
+				}
+			}
+		}
+		return pool;
+	}
+	
+	@Override
+	public Collection<ODatabasePoolStatistics> getPoolStatistics() {
+		return Collections.unmodifiableCollection(poolStatistics.asMap().values());
+	}
+	
+	@Override
+	public void closePools() {
+		configuredPools.invalidateAll();
+		poolStatistics.invalidateAll();
+	}
+	
+	private static void closePool(ODatabasePool pool) {
+		if(pool!=null && !pool.isClosed()) pool.close();
+	}
+	
+	@Override
+	public Executor getClosureExecutor() {
+		if(closureExecutor==null) {
+			synchronized (this) {
+				if(closureExecutor==null) {
+					defaultClosureExecutor = newClosureExecutor();
+					closureExecutor = defaultClosureExecutor;
+				}
+			}
+		}
+		return closureExecutor;
+	}
+	
+	@Override
+	public void shutdownClosureExecutor() {
+		Executor executor;
+		synchronized (this) {
+			executor = defaultClosureExecutor;
+			defaultClosureExecutor = null;
+			//Executor is created again upon next request instead of rejecting closures
+			if(closureExecutor==executor) closureExecutor = null;
+		}
+		if(executor instanceof ExecutorService) {
+			ExecutorService service = (ExecutorService) executor;
+			service.shutdown();
+			try {
+				if(!service.awaitTermination(CLOSURE_EXECUTOR_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) service.shutdownNow();
+			} catch (InterruptedException e) {
+				service.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	@Override
+	public void setClosureExecutor(Executor executor) {
+		this.closureExecutor = executor;
+	}
+	
+	/**
+	 * Create default {@link Executor} for asynchronous closures: bounded pool of daemon threads which are stopped when idle
+	 * @return new {@link Executor}
+	 */
+	protected Executor newClosureExecutor() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		AtomicInteger counter = new AtomicInteger();
+		ThreadFactory threadFactory = r -> {
+			Thread thread = new Thread(r, "DBClosure-async-"+counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+									new LinkedBlockingQueue<Runnable>(CLOSURE_EXECUTOR_QUEUE_SIZE), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Create {@link OrientDBConfig} for a pool of database sessions
+	 * @param min minimal number of sessions in the pool
+	 * @param max maximal number of sessions in the pool
+	 * @param acquireTimeout timeout in milliseconds for acquiring of a session: 0 - wait forever
+	 * @return {@link OrientDBConfig} for a pool
+	 */
+	public static OrientDBConfig newPoolConfig(int min, int max, long acquireTimeout) {
+		return OrientDBConfig.builder()
+				.addConfig(OGlobalConfiguration.DB_POOL_MIN, min)
+				.addConfig(OGlobalConfiguration.DB_POOL_MAX, max)
+				.addConfig(OGlobalConfiguration.DB_POOL_ACQUIRE_TIMEOUT, acquireTimeout)
+				.build();
+	}
+
 	@Override
 	public String getOrientDBRestApiUrl() {
 		if(orientDbRestApiUrl==null)
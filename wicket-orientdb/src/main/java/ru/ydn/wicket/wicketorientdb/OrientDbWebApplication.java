@@ -23,14 +23,22 @@ import com.orientechnologies.orient.server.OServer;
 import ru.ydn.wicket.wicketorientdb.converter.HexConverter;
 import ru.ydn.wicket.wicketorientdb.converter.ODocumentConverter;
 import ru.ydn.wicket.wicketorientdb.converter.OIdentifiableConverter;
+import ru.ydn.wicket.wicketorientdb.model.ODocumentIdentityMapEvictionHook;
 import ru.ydn.wicket.wicketorientdb.rest.OrientDBHttpAPIResource;
 import ru.ydn.wicket.wicketorientdb.security.IResourceCheckingStrategy;
+import ru.ydn.wicket.wicketorientdb.security.OPermissionDecisionCache;
+import ru.ydn.wicket.wicketorientdb.security.OPermissionDecisionCacheInvalidationHook;
 import ru.ydn.wicket.wicketorientdb.security.OSecurityHelper;
+import ru.ydn.wicket.wicketorientdb.security.VerifiedCredentialsCache;
 import ru.ydn.wicket.wicketorientdb.security.WicketOrientDbAuthorizationStrategy;
 import ru.ydn.wicket.wicketorientdb.service.ODatabaseHooksInstallListener;
 import ru.ydn.wicket.wicketorientdb.utils.FixFormEncTypeListener;
 import ru.ydn.wicket.wicketorientdb.utils.FlexyMetaDataKey;
 import ru.ydn.wicket.wicketorientdb.utils.ODocumentPropertyLocator;
+import ru.ydn.wicket.wicketorientdb.utils.query.QueryCountCache;
+import ru.ydn.wicket.wicketorientdb.utils.query.QueryCountCacheInvalidationHook;
+import ru.ydn.wicket.wicketorientdb.utils.query.QueryParseCache;
+import ru.ydn.wicket.wicketorientdb.utils.query.QueryStatementCache;
 
 /**
  * {@link WebApplication} realization for applications on top of OrientDB
@@ -40,6 +48,11 @@ public abstract class OrientDbWebApplication extends AuthenticatedWebApplication
 	private IOrientDbSettings orientDbSettings = new OrientDbSettings();
 	private OServer server;
 	private Supplier<IExceptionMapper> exceptionMapperProvider = () -> new OrientDefaultExceptionMapper();
+	private final QueryCountCache queryCountCache = new QueryCountCache();
+	private final QueryParseCache queryParseCache = new QueryParseCache();
+	private final QueryStatementCache queryStatementCache = new QueryStatementCache();
+	private final OPermissionDecisionCache permissionDecisionCache = new OPermissionDecisionCache();
+	private final VerifiedCredentialsCache verifiedCredentialsCache = new VerifiedCredentialsCache();
 	@Override
 	protected Class<? extends OrientDbWebSession> getWebSessionClass()
 	{
@@ -63,6 +76,46 @@ public abstract class OrientDbWebApplication extends AuthenticatedWebApplication
 		this.orientDbSettings=orientDbSettings;
 	}
 	
+	/**
+	 * @return {@link QueryCountCache} of the application
+	 */
+	public QueryCountCache getQueryCountCache()
+	{
+		return queryCountCache;
+	}
+	
+	/**
+	 * @return {@link QueryParseCache} of the application
+	 */
+	public QueryParseCache getQueryParseCache()
+	{
+		return queryParseCache;
+	}
+	
+	/**
+	 * @return {@link QueryStatementCache} of the application
+	 */
+	public QueryStatementCache getQueryStatementCache()
+	{
+		return queryStatementCache;
+	}
+	
+	/**
+	 * @return {@link OPermissionDecisionCache} of the application
+	 */
+	public OPermissionDecisionCache getOPermissionDecisionCache()
+	{
+		return permissionDecisionCache;
+	}
+	
+	/**
+	 * @return {@link VerifiedCredentialsCache} of the application
+	 */
+	public VerifiedCredentialsCache getVerifiedCredentialsCache()
+	{
+		return verifiedCredentialsCache;
+	}
+	
 	public static OrientDbWebApplication get()
     {
         return (OrientDbWebApplication) WebApplication.get();
@@ -106,12 +159,21 @@ public abstract class OrientDbWebApplication extends AuthenticatedWebApplication
 			}
 			@Override
 			public void onBeforeDestroyed(Application application) {
+				//Closures still running should complete before OrientDB goes down
+				getOrientDbSettings().shutdownClosureExecutor();
+				getOrientDbSettings().closePools();
 				Orient.instance().shutdown();
 			}
 		});
 		getAjaxRequestTargetListeners().add(new FixFormEncTypeListener());
 		//workaround to support changing system users passwords in web interface
 		getOrientDbSettings().addORecordHooks(OUserCatchPasswordHook.class);
+		//invalidation of cached counts of queries
+		getOrientDbSettings().addORecordHooks(QueryCountCacheInvalidationHook.class);
+		//invalidation of cached decisions about access to resources
+		getOrientDbSettings().addORecordHooks(OPermissionDecisionCacheInvalidationHook.class);
+		//eviction of deleted documents from request identity map
+		getOrientDbSettings().addORecordHooks(ODocumentIdentityMapEvictionHook.class);
 		PropertyResolver.setLocator(this, new ODocumentPropertyLocator(new PropertyResolver.CachingPropertyLocator(new PropertyResolver.DefaultPropertyLocator())));
 	}
 
@@ -150,9 +212,22 @@ public abstract class OrientDbWebApplication extends AuthenticatedWebApplication
 	}
 	
 	@Override
-	public boolean checkResource(ResourceGeneric resource, String specific, int iOperation) {
-		OSecurityUser user = OrientDbWebSession.get().getEffectiveUser();
-		if(Strings.isEmpty(specific)) specific = null;
+	public boolean checkResource(final ResourceGeneric resource, String specific, final int iOperation) {
+		final OSecurityUser user = OrientDbWebSession.get().getEffectiveUser();
+		final String specificResource = Strings.isEmpty(specific)?null:specific;
+		return OPermissionDecisionCache.get().isAllowed(user, resource, specificResource, iOperation,
+								() -> evaluateResource(user, resource, specificResource, iOperation));
+	}
+	
+	/**
+	 * Evaluate access to a resource without caching: checks specific resource and then all its parents
+	 * @param user user to check access for
+	 * @param resource resource to check access to
+	 * @param specific specific resource or null
+	 * @param iOperation required operation
+	 * @return true if access is allowed
+	 */
+	protected boolean evaluateResource(OSecurityUser user, ResourceGeneric resource, String specific, int iOperation) {
 		if(user.checkIfAllowed(resource, specific, iOperation)!=null) return true;
 		while(!Strings.isEmpty(specific=Strings.beforeLastPathComponent(specific, '.')))
 		{
@@ -1,6 +1,9 @@
 package ru.ydn.wicket.wicketorientdb;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 
 import com.orientechnologies.orient.core.db.ODatabaseSession;
@@ -11,10 +14,13 @@ import org.apache.wicket.model.IModel;
 import org.apache.wicket.protocol.http.WebSession;
 import org.apache.wicket.request.Request;
 
+import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.ODatabaseThreadLocalFactory;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.exception.OSecurityAccessException;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OSchema;
 import com.orientechnologies.orient.core.metadata.security.OSecurityRole;
 import com.orientechnologies.orient.core.metadata.security.OSecurityUser;
@@ -23,6 +29,8 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
 
 import lombok.experimental.ExtensionMethod;
 import ru.ydn.wicket.wicketorientdb.model.ODocumentModel;
+import ru.ydn.wicket.wicketorientdb.security.OPermissionDecisionCache;
+import ru.ydn.wicket.wicketorientdb.security.VerifiedCredentialsCache;
 import ru.ydn.wicket.wicketorientdb.utils.FlexyMetaDataKey;
 import ru.ydn.wicket.wicketorientdb.utils.LombokExtensions;
 
@@ -37,6 +45,30 @@ public class OrientDbWebSession extends AuthenticatedWebSession {
 	private String password;
 	private IModel<ODocument> userModel = new ODocumentModel();
 	
+	private transient volatile OUser cachedUser;
+	private transient volatile CachedRoles cachedRoles;
+	
+	/**
+	 * Immutable holder of flattened roles and versions of user record and security they were built for
+	 */
+	private static final class CachedRoles {
+		private final Set<String> roles;
+		private final ORID userId;
+		private final int userVersion;
+		private final long securityVersion;
+		
+		private CachedRoles(Roles roles, ORID userId, int userVersion, long securityVersion) {
+			this.roles = Collections.unmodifiableSet(new HashSet<String>(roles));
+			this.userId = userId;
+			this.userVersion = userVersion;
+			this.securityVersion = securityVersion;
+		}
+		
+		private boolean isActual(ORID userId, int userVersion, long securityVersion) {
+			return Objects.equals(this.userId, userId) && this.userVersion==userVersion && this.securityVersion==securityVersion;
+		}
+	}
+	
 	public OrientDbWebSession(Request request) {
 		super(request);
 	}
@@ -46,12 +78,35 @@ public class OrientDbWebSession extends AuthenticatedWebSession {
 		return (OrientDbWebSession)Session.get();
 	}
 
+	/**
+	 * Flattened roles of the user are cached: they are rebuilt only if user record or security were changed
+	 * @return copy of {@link Roles} of the signed in user
+	 */
 	@Override
 	public Roles getRoles() {
+		if(!isSignedIn()) return new Roles();
+		ODocument userDoc = getUserAsODocument();
+		ORID userId = userDoc!=null?userDoc.getIdentity():null;
+		int userVersion = userDoc!=null?userDoc.getVersion():0;
+		long securityVersion = OPermissionDecisionCache.getSecurityVersion();
+		CachedRoles cached = cachedRoles;
+		if(cached==null || !cached.isActual(userId, userVersion, securityVersion))
+		{
+			cached = new CachedRoles(buildRoles(), userId, userVersion, securityVersion);
+			cachedRoles = cached;
+		}
+		return new Roles(cached.roles);
+	}
+	
+	/**
+	 * @return {@link Roles} of the user including all parent roles
+	 */
+	protected Roles buildRoles() {
 		Roles ret = new Roles();
-		if(isSignedIn())
+		OSecurityUser user = getUser();
+		if(user!=null)
 		{
-			Set<? extends OSecurityRole> roles = getUser().getRoles();
+			Set<? extends OSecurityRole> roles = user.getRoles();
 			for (OSecurityRole oRole : roles) {
 				ret.add(oRole.getName());
 				OSecurityRole parent = oRole.getParentRole();
@@ -105,7 +160,10 @@ public class OrientDbWebSession extends AuthenticatedWebSession {
 		try {
 			boolean inTransaction = currentDB.getTransaction().isActive();
 			IOrientDbSettings settings = OrientDbWebApplication.get().getOrientDbSettings();
-			ODatabaseSession newDB = settings.getContext().cachedPool(settings.getDbName(), username, password).acquire();
+			ODatabaseThreadLocalFactory factory = Orient.instance().getDatabaseThreadFactory();
+			ODatabaseSession newDB = factory instanceof ImpersonatingODatabaseThreadLocalFactory
+										?((ImpersonatingODatabaseThreadLocalFactory)factory).authenticate(username, password)
+										:settings.acquireDatabaseSession(settings.getDbName(), username, password);
 			if (newDB != currentDB) {
 				currentDB.activateOnCurrentThread();
 				currentDB.commit();
@@ -124,11 +182,49 @@ public class OrientDbWebSession extends AuthenticatedWebSession {
 		}
 	}
 	
+	/**
+	 * Sign in by credentials which were already verified: see {@link VerifiedCredentialsCache}
+	 * @param username name of a user
+	 * @param password password of a user
+	 * @return true if user was signed in
+	 */
+	boolean signInVerified(String username, String password)
+	{
+		ODatabaseDocument currentDB = ODatabaseRecordThreadLocal.instance().getIfDefined();
+		if(currentDB!=null && !currentDB.isClosed())
+		{
+			currentDB.activateOnCurrentThread();
+			if(currentDB.getTransaction().isActive()) currentDB.commit();
+			currentDB.close();
+		}
+		ODatabaseRecordThreadLocal.instance().remove();
+		setUser(username, password);
+		try {
+			if(!isSignedIn())
+			{
+				signIn(true);
+				bind();
+			}
+			userModel.setObject(getDatabaseSession().getUser().getDocument());
+			return true;
+		} catch (OSecurityAccessException e) {
+			signOut();
+			return false;
+		}
+	}
+	
 	protected void setUser(String username, String password)
 	{
 		this.username = username;
 		this.password = password;
 		this.userModel.setObject(null);
+		resetUserCache();
+	}
+	
+	private void resetUserCache()
+	{
+		cachedUser = null;
+		cachedRoles = null;
 	}
 	
 	public OSecurityUser getEffectiveUser()
@@ -141,11 +237,19 @@ public class OrientDbWebSession extends AuthenticatedWebSession {
 	
 	/**
 	 * @return currently signed in {@link OUser}. Returns null in case of no user was signed in.
+	 * {@link OUser} is created once per request and per version of a user record
 	 */
 	public OSecurityUser getUser()
 	{
 		ODocument userDoc = getUserAsODocument();
-		return userDoc!=null?new OUser(userDoc):null;
+		if(userDoc==null) return null;
+		OUser user = cachedUser;
+		if(user==null || user.getDocument()!=userDoc || user.getDocument().isDirty())
+		{
+			user = new OUser(userDoc);
+			cachedUser = user;
+		}
+		return user;
 	}
 	
 	/**
@@ -160,6 +264,18 @@ public class OrientDbWebSession extends AuthenticatedWebSession {
 	public void detach() {
 		super.detach();
 		userModel.detach();
+		//Wrapper is bound to the document of the request
+		cachedUser = null;
+	}
+	
+	/**
+	 * @return {@link ORID} of a logged in user. Document of the user is not loaded if identity is already known
+	 */
+	public ORID getUserIdentity()
+	{
+		if(userModel instanceof ODocumentModel) return ((ODocumentModel)userModel).getIdentity();
+		ODocument userDoc = getUserAsODocument();
+		return userDoc!=null?userDoc.getIdentity():null;
 	}
 	
 	public String getUsername()
@@ -178,6 +294,7 @@ public class OrientDbWebSession extends AuthenticatedWebSession {
 		this.username=null;
 		this.password=null;
 		this.userModel.setObject(null);
+		resetUserCache();
 		ODatabaseRecordThreadLocal.instance().remove();
 	}
 	
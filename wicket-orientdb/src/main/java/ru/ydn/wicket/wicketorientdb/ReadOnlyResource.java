@@ -0,0 +1,20 @@
+package ru.ydn.wicket.wicketorientdb;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks resource or page which doesn't change data: in lazy mode of {@link TransactionRequestCycleListener}
+ * such resources and GET requests of such pages are executed without transaction
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ReadOnlyResource {
+
+}
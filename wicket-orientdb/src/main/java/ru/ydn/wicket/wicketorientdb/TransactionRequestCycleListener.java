@@ -1,9 +1,20 @@
 package ru.ydn.wicket.wicketorientdb;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.core.request.handler.BookmarkablePageRequestHandler;
+import org.apache.wicket.core.request.handler.IPageClassRequestHandler;
+import org.apache.wicket.core.request.handler.RenderPageRequestHandler;
 import org.apache.wicket.request.IRequestHandler;
 import org.apache.wicket.request.cycle.IRequestCycleListener;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.apache.wicket.request.handler.resource.ResourceReferenceRequestHandler;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.request.resource.IResource;
 import org.apache.wicket.request.resource.PackageResourceReference;
 import org.apache.wicket.request.resource.ResourceReference;
 import org.apache.wicket.util.lang.Objects;
@@ -11,22 +22,134 @@ import org.apache.wicket.util.lang.Objects;
 import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.security.OSecurityUser;
 
 import lombok.experimental.ExtensionMethod;
+import ru.ydn.wicket.wicketorientdb.model.ODocumentIdentityMap;
 import ru.ydn.wicket.wicketorientdb.utils.LombokExtensions;
 
 /**
- * Implementation of {@link IRequestCycleListener} for starting and stoping transactions just for pages and dynamic resources
+ * Implementation of {@link IRequestCycleListener} for starting and stoping transactions just for pages and dynamic resources.
+ * In lazy mode requests which are explicitly marked as read-only (resources and GET of pages annotated by {@link ReadOnlyResource})
+ * are executed without transaction: it's begun just before first change of a model ({@link #beginPendingTransaction()}) if any.
+ * Other requests always have transaction, because data can be changed not only through models.
+ * Idempotent requests can be retried upon concurrent modifications: see {@link TransactionRetryPolicy}.
+ * Transaction of a retryable handler is committed right after execution of the handler, so it can be executed again
+ * before end of the request. Following scheduled handlers of the request are executed in a new transaction.
  */
 @ExtensionMethod({LombokExtensions.class})
 public class TransactionRequestCycleListener extends
 		AbstractContentAwareTransactionRequestCycleListener {
+	
+	private final static MetaDataKey<TransactionRequestCycleListener> PENDING_TRANSACTION_KEY 
+						= new MetaDataKey<TransactionRequestCycleListener>(){private static final long serialVersionUID = 1L;};
+	
+	private final static MetaDataKey<IRequestHandler> RETRYABLE_HANDLER_KEY 
+						= new MetaDataKey<IRequestHandler>(){private static final long serialVersionUID = 1L;};
+	
+	private boolean lazyTransactions = false;
+	private TransactionRetryPolicy retryPolicy;
+	private final AtomicLong openedTransactions = new AtomicLong();
+	private final AtomicLong avoidedTransactions = new AtomicLong();
+	
+	@Override
+	public void onRequestHandlerResolved(RequestCycle cycle, IRequestHandler handler) {
+		if(!isInProgress(cycle) && isOurContent(cycle, handler)) {
+			if(lazyTransactions && isReadOnly(cycle, handler)) cycle.setMetaData(PENDING_TRANSACTION_KEY, this);
+			cycle.setMetaData(RETRYABLE_HANDLER_KEY, retryPolicy!=null && retryPolicy.isRetryable(handler)?handler:null);
+		}
+		super.onRequestHandlerResolved(cycle, handler);
+	}
+	
+	@Override
+	public void onRequestHandlerExecuted(RequestCycle cycle, IRequestHandler handler) {
+		IRequestHandler retryable = cycle.getMetaData(RETRYABLE_HANDLER_KEY);
+		if(retryable==null || retryable!=handler) return;
+		cycle.setMetaData(RETRYABLE_HANDLER_KEY, null);
+		if(retryPolicy==null) return;
+		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
+		if(db!=null && !db.isClosed() && db.getTransaction().isActive()) {
+			commit(cycle, db, handler);
+			if(lazyTransactions && isReadOnly(cycle, handler)) cycle.setMetaData(PENDING_TRANSACTION_KEY, this);
+			else db.begin();
+		}
+	}
+	
 	@Override
 	public void start(RequestCycle cycle) {
 		OrientDbWebSession session = OrientDbWebSession.get();
 		ODatabaseDocumentInternal db = session.getDatabaseDocumentInternal();
 		//It's required to have ability to check security rights locally
+		if(!isDatabaseUserActual(session, db)) resolveDatabaseUser(session, db);
+		if(!lazyTransactions || cycle.getMetaData(PENDING_TRANSACTION_KEY)==null) beginTransaction(db);
+	}
+	
+	private void beginTransaction(ODatabaseDocument db) {
+		db.begin();
+		openedTransactions.incrementAndGet();
+	}
+	
+	/**
+	 * Begin transaction which was postponed in lazy mode for current read-only request.
+	 * Should be invoked before first change of data: models do that in setObject()
+	 * @return true if transaction was begun
+	 */
+	public static boolean beginPendingTransaction() {
+		RequestCycle cycle = RequestCycle.get();
+		if(cycle==null) return false;
+		TransactionRequestCycleListener listener = cycle.getMetaData(PENDING_TRANSACTION_KEY);
+		if(listener==null) return false;
+		cycle.setMetaData(PENDING_TRANSACTION_KEY, null);
+		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
+		if(db==null || db.isClosed() || db.getTransaction().isActive()) return false;
+		listener.beginTransaction(db);
+		return true;
+	}
+	
+	/**
+	 * Check that request doesn't change data, so transaction is not required in lazy mode.
+	 * Resources and GET of pages (without invocation of a listener) annotated by {@link ReadOnlyResource} are read-only.
+	 * @param cycle current {@link RequestCycle}
+	 * @param handler current {@link IRequestHandler}
+	 * @return true if request is read-only
+	 */
+	protected boolean isReadOnly(RequestCycle cycle, IRequestHandler handler) {
+		if(handler instanceof ResourceReferenceRequestHandler) {
+			IResource resource = ((ResourceReferenceRequestHandler)handler).getResource();
+			return resource!=null && resource.getClass().isAnnotationPresent(ReadOnlyResource.class);
+		} else if(handler instanceof RenderPageRequestHandler || handler instanceof BookmarkablePageRequestHandler) {
+			Class<?> pageClass = ((IPageClassRequestHandler)handler).getPageClass();
+			if(pageClass==null || !pageClass.isAnnotationPresent(ReadOnlyResource.class)) return false;
+			HttpServletRequest request = cycle.getRequest().asHttpServletRequest();
+			return request!=null && "GET".equalsIgnoreCase(request.getMethod());
+		}
+		return false;
+	}
+	
+	/**
+	 * Fast check which doesn't require loading of user's document: pooled database is usually opened for user of the session
+	 * @param session current {@link OrientDbWebSession}
+	 * @param db database of the request
+	 * @return true if user of the database is actual for the session
+	 */
+	protected boolean isDatabaseUserActual(OrientDbWebSession session, ODatabaseDocumentInternal db) {
+		String username = session.isSignedIn()?session.getUsername():null;
+		if(username==null) return true;
+		//User with invalid identity should be resolved again even if names are equal
+		ORID userId = session.getUserIdentity();
+		if(userId!=null && !userId.isValid()) return false;
+		OSecurityUser dbUser = db.getUser();
+		return dbUser!=null && username.equals(dbUser.getName());
+	}
+	
+	/**
+	 * Set user of the session to the database of the request
+	 * @param session current {@link OrientDbWebSession}
+	 * @param db database of the request
+	 */
+	protected void resolveDatabaseUser(OrientDbWebSession session, ODatabaseDocumentInternal db) {
 		OSecurityUser oUser = session.getUser();
 		OSecurityUser dbUser = db.getUser();
 		if(oUser!=null && oUser.getDocument()!=null 
@@ -35,18 +158,70 @@ public class TransactionRequestCycleListener extends
 		{
 			db.setUser(db.getMetadata().getSecurity().getUser(oUser.getName()));
 		}
-		db.begin();
 	}
 	
 
 	@Override
 	public void end(RequestCycle cycle) {
+		if(cycle.getMetaData(PENDING_TRANSACTION_KEY)!=null) {
+			cycle.setMetaData(PENDING_TRANSACTION_KEY, null);
+			avoidedTransactions.incrementAndGet();
+		}
 		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
-		if(db!=null && db.getTransaction().isActive()) db.commit();
+		if(db!=null && db.getTransaction().isActive()) commit(cycle, db, null);
+	}
+	
+	/**
+	 * Commit transaction of the request. If {@link TransactionRetryPolicy} is defined and handler is retryable,
+	 * the handler is executed again in a new transaction in case of {@link OConcurrentModificationException}.
+	 * Any other failure of the execution rolls back the new transaction
+	 * @param cycle current {@link RequestCycle}
+	 * @param db database to commit
+	 * @param handler retryable {@link IRequestHandler} or null if retries are not allowed
+	 */
+	protected void commit(RequestCycle cycle, ODatabaseDocument db, IRequestHandler handler) {
+		for(int retry=1;;retry++) {
+			try {
+				db.commit();
+				return;
+			} catch (OConcurrentModificationException e) {
+				if(retryPolicy==null) throw e;
+				retryPolicy.onConflict(db, e);
+				if(handler==null || !retryPolicy.canRetry(retry) || !isResponseResettable(cycle)) throw e;
+				if(db.getTransaction().isActive()) db.rollback();
+				try {
+					retryPolicy.onRetry(retry);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				ODocumentIdentityMap.clear(cycle);
+				((WebResponse)cycle.getResponse()).reset();
+				db.begin();
+				try {
+					retryPolicy.toReplayHandler(handler).respond(cycle);
+				} catch (RuntimeException re) {
+					if(db.getTransaction().isActive()) db.rollback();
+					throw re;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param cycle current {@link RequestCycle}
+	 * @return true if nothing was sent to a client yet, so response can be produced again
+	 */
+	protected boolean isResponseResettable(RequestCycle cycle) {
+		if(!(cycle.getResponse() instanceof WebResponse)) return false;
+		Object containerResponse = cycle.getResponse().getContainerResponse();
+		return !(containerResponse instanceof HttpServletResponse) || !((HttpServletResponse)containerResponse).isCommitted();
 	}
 	
 	@Override
 	public void onDetach(RequestCycle cycle) {
+		ODocumentIdentityMap.clear(cycle);
+		cycle.setMetaData(RETRYABLE_HANDLER_KEY, null);
 		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
 		if(db!=null) {
 			if(db.getTransaction().isActive()) db.commit(true);
@@ -59,8 +234,10 @@ public class TransactionRequestCycleListener extends
 
 	@Override
 	public IRequestHandler onException(RequestCycle cycle, Exception ex) {
+		ODocumentIdentityMap.clear(cycle);
+		cycle.setMetaData(PENDING_TRANSACTION_KEY, null);
 		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
-		if(db!=null && !db.isClosed()) db.rollback();
+		if(db!=null && !db.isClosed() && db.getTransaction().isActive()) db.rollback();
 		return null;
 	}
 	
@@ -76,4 +253,52 @@ public class TransactionRequestCycleListener extends
 		return true;
 	}
 
+	
+	/**
+	 * @return true if transactions are begun lazily and requests marked by {@link ReadOnlyResource} are executed without transaction
+	 */
+	public boolean isLazyTransactions() {
+		return lazyTransactions;
+	}
+	
+	/**
+	 * Enable or disable lazy mode
+	 * @param lazyTransactions true to begin transactions lazily
+	 * @return this listener
+	 */
+	public TransactionRequestCycleListener setLazyTransactions(boolean lazyTransactions) {
+		this.lazyTransactions = lazyTransactions;
+		return this;
+	}
+	
+	/**
+	 * @return {@link TransactionRetryPolicy} or null if requests are not retried
+	 */
+	public TransactionRetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+	
+	/**
+	 * @param retryPolicy {@link TransactionRetryPolicy} to use upon concurrent modifications or null to disable retries
+	 * @return this listener
+	 */
+	public TransactionRequestCycleListener setRetryPolicy(TransactionRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+	
+	/**
+	 * @return number of requests for which transaction was begun
+	 */
+	public long getOpenedTransactionsCount() {
+		return openedTransactions.get();
+	}
+	
+	/**
+	 * @return number of read-only requests which were executed without transaction in lazy mode
+	 */
+	public long getAvoidedTransactionsCount() {
+		return avoidedTransactions.get();
+	}
+
 }
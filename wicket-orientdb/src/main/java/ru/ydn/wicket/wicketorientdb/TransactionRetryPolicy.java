@@ -0,0 +1,162 @@
+package ru.ydn.wicket.wicketorientdb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.core.request.handler.IPageClassRequestHandler;
+import org.apache.wicket.core.request.handler.IPageRequestHandler;
+import org.apache.wicket.core.request.handler.ListenerRequestHandler;
+import org.apache.wicket.core.request.handler.PageProvider;
+import org.apache.wicket.core.request.handler.RenderPageRequestHandler;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.handler.resource.ResourceReferenceRequestHandler;
+import org.apache.wicket.request.resource.IResource;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+
+/**
+ * Policy of {@link TransactionRequestCycleListener} for handling of {@link OConcurrentModificationException}s upon commit.
+ * Idempotent handlers ({@link IIdempotentRequestHandler}, pages and resources annotated by {@link IdempotentRequest})
+ * are executed again in a new transaction after jittered exponential backoff. Only handlers which build their state from the database
+ * are retried: page is rendered again by new instance of it, and listener (form submit, ajax) handlers are never retried,
+ * because they change state of an existing page.
+ * Policy collects numbers of conflicts and retries and records which documents are modified concurrently most often.
+ */
+public class TransactionRetryPolicy {
+	
+	private static final int MAX_HOTSPOTS = 1000;
+	
+	private final int maxRetries;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final AtomicLong conflicts = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final Map<String, AtomicLong> hotspots = new ConcurrentHashMap<String, AtomicLong>();
+	
+	public TransactionRetryPolicy() {
+		this(3, 10, 200);
+	}
+	
+	/**
+	 * @param maxRetries maximal number of retries of a request
+	 * @param baseDelay delay in milliseconds before first retry: it's doubled for every next retry
+	 * @param maxDelay maximal delay in milliseconds before a retry
+	 */
+	public TransactionRetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+		this.maxRetries = maxRetries;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+	
+	/**
+	 * Should be invoked before execution of the handler: page of a retryable handler should not exist yet
+	 * @param handler {@link IRequestHandler} to check
+	 * @return true if handler can be executed again
+	 */
+	public boolean isRetryable(IRequestHandler handler) {
+		if(handler instanceof IIdempotentRequestHandler) return true;
+		else if(handler instanceof ListenerRequestHandler) return false;
+		else if(handler instanceof IPageClassRequestHandler) {
+			if(handler instanceof IPageRequestHandler && ((IPageRequestHandler)handler).isPageInstanceCreated()) return false;
+			Class<?> pageClass = ((IPageClassRequestHandler)handler).getPageClass();
+			return pageClass!=null && pageClass.isAnnotationPresent(IdempotentRequest.class);
+		} else if(handler instanceof ResourceReferenceRequestHandler) {
+			IResource resource = ((ResourceReferenceRequestHandler)handler).getResource();
+			return resource!=null && resource.getClass().isAnnotationPresent(IdempotentRequest.class);
+		}
+		return false;
+	}
+	
+	/**
+	 * Prepare retryable handler for execution again: page of {@link RenderPageRequestHandler} is created again,
+	 * so its state is built from the database instead of reuse of the instance changed by the failed attempt
+	 * @param handler retryable {@link IRequestHandler}
+	 * @return {@link IRequestHandler} to execute
+	 */
+	public IRequestHandler toReplayHandler(IRequestHandler handler) {
+		if(handler instanceof RenderPageRequestHandler) {
+			RenderPageRequestHandler pageHandler = (RenderPageRequestHandler)handler;
+			return new RenderPageRequestHandler(new PageProvider(pageHandler.getPageClass(), pageHandler.getPageParameters()), 
+													pageHandler.getRedirectPolicy());
+		}
+		return handler;
+	}
+	
+	/**
+	 * @param retry number of a retry starting from 1
+	 * @return true if retry is allowed
+	 */
+	public boolean canRetry(int retry) {
+		return retry<=maxRetries;
+	}
+	
+	/**
+	 * Record conflict
+	 * @param db database of the conflict
+	 * @param e exception thrown by commit
+	 */
+	public void onConflict(ODatabaseDocument db, OConcurrentModificationException e) {
+		conflicts.incrementAndGet();
+		ORID rid = e.getRid();
+		if(rid==null) return;
+		OClass oClass = db!=null && !db.isClosed()?db.getMetadata().getSchema().getClassByClusterId(rid.getClusterId()):null;
+		String hotspot = (oClass!=null?oClass.getName():"?")+" "+rid;
+		AtomicLong counter = hotspots.get(hotspot);
+		if(counter==null && hotspots.size()<MAX_HOTSPOTS) {
+			counter = hotspots.computeIfAbsent(hotspot, k -> new AtomicLong());
+		}
+		if(counter!=null) counter.incrementAndGet();
+	}
+	
+	/**
+	 * Record retry and wait before it
+	 * @param retry number of a retry starting from 1
+	 * @throws InterruptedException if waiting was interrupted
+	 */
+	public void onRetry(int retry) throws InterruptedException {
+		retries.incrementAndGet();
+		long delay = Math.min(maxDelay, baseDelay << Math.min(retry-1, 30));
+		if(delay>0) Thread.sleep(delay/2+ThreadLocalRandom.current().nextLong(delay/2+1));
+	}
+	
+	/**
+	 * @return number of {@link OConcurrentModificationException}s upon commit
+	 */
+	public long getConflictsCount() {
+		return conflicts.get();
+	}
+	
+	/**
+	 * @return number of retries of requests
+	 */
+	public long getRetriesCount() {
+		return retries.get();
+	}
+	
+	/**
+	 * @return number of conflicts by 'class rid' of conflicted documents
+	 */
+	public Map<String, Long> getHotspots() {
+		Map<String, Long> ret = new HashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : hotspots.entrySet()) {
+			ret.put(entry.getKey(), entry.getValue().get());
+		}
+		return Collections.unmodifiableMap(ret);
+	}
+	
+	/**
+	 * Forget all collected conflicts and retries
+	 */
+	public void reset() {
+		conflicts.set(0);
+		retries.set(0);
+		hotspots.clear();
+	}
+}
@@ -5,7 +5,7 @@ import org.apache.wicket.authorization.Action;
 import org.apache.wicket.behavior.Behavior;
 import org.apache.wicket.model.IModel;
 
-import ru.ydn.wicket.wicketorientdb.security.OSecurityHelper;
+import ru.ydn.wicket.wicketorientdb.security.ODocumentAccessCache;
 import ru.ydn.wicket.wicketorientdb.security.OrientPermission;
 
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
@@ -13,7 +13,8 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
 
 /**
  * Behavior which can dynamically show/hide or enable/disable a component according to security rights
- * Can use predefined document or a document obtained from a component's model
+ * Can use predefined document or a document obtained from a component's model.
+ * Record level decisions are shared within a request through {@link ODocumentAccessCache}
  */
 public class SecurityBehavior extends Behavior
 {
@@ -57,7 +58,7 @@ public class SecurityBehavior extends Behavior
 			ODocument doc = documentModel.getObject();
 			if(cachedVisibility==null)
 			{
-				cachedVisibility = OSecurityHelper.isAllowed(doc, permissions);
+				cachedVisibility = ODocumentAccessCache.isAllowedCached(doc, permissions);
 			}
 			trigger(component, cachedVisibility);
 		}
@@ -67,7 +68,7 @@ public class SecurityBehavior extends Behavior
 			if(modelObject instanceof OIdentifiable)
 			{
 				ODocument doc = ((OIdentifiable)modelObject).getRecord();
-				trigger(component, OSecurityHelper.isAllowed(doc, permissions));
+				trigger(component, ODocumentAccessCache.isAllowedCached(doc, permissions));
 			}
 		}
 	}
@@ -10,6 +10,8 @@ import com.orientechnologies.orient.core.metadata.schema.OProperty;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 
+import ru.ydn.wicket.wicketorientdb.TransactionRequestCycleListener;
+
 /**
  * {@link IModel} for dynamic getting a value of a property and document specified by models
  *
@@ -35,6 +37,13 @@ public class DynamicPropertyValueModel<T> extends LoadableDetachableModel<T>
 		this.valueType = valueType;
 	}
 	
+	/**
+	 * @return model of the document
+	 */
+	public IModel<ODocument> getDocumentModel() {
+		return docModel;
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Override
 	protected T load() {
@@ -65,6 +74,7 @@ public class DynamicPropertyValueModel<T> extends LoadableDetachableModel<T>
 		ODocument doc = docModel.getObject();
 		OProperty prop = propertyModel!=null?propertyModel.getObject():null;
 		if(doc==null) return;
+		TransactionRequestCycleListener.beginPendingTransaction();
 		if(prop==null)
 		{
 			if(object instanceof OIdentifiable) docModel.setObject((ODocument)object);
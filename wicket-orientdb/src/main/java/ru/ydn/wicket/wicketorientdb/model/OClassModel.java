@@ -1,12 +1,17 @@
 package ru.ydn.wicket.wicketorientdb.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Objects;
 
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.Model;
 
 import ru.ydn.wicket.wicketorientdb.OrientDbWebSession;
+import ru.ydn.wicket.wicketorientdb.utils.OSchemaSnapshot;
 
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OSchema;
@@ -17,7 +22,12 @@ import com.orientechnologies.orient.core.metadata.schema.OSchema;
 public class OClassModel extends PrototypeLoadableDetachableModel<OClass>{
 
 	private static final long serialVersionUID = 1L;
-	private IModel<String> classNameModel;
+	
+	private static final byte NO_NAME_MODEL = 0;
+	private static final byte PLAIN_NAME = 1;
+	private static final byte CUSTOM_NAME_MODEL = 2;
+	
+	private transient IModel<String> classNameModel;
 	
 	public OClassModel(OClass oClass) {
 		super(oClass);
@@ -34,7 +44,9 @@ public class OClassModel extends PrototypeLoadableDetachableModel<OClass>{
 	@Override
 	protected OClass loadInstance() {
 		String className = classNameModel!=null?classNameModel.getObject():null;
-		return className!=null?OrientDbWebSession.get().getSchema().getClass(className):null;
+		if(className==null) return null;
+		ODatabaseDocumentInternal db = OrientDbWebSession.get().getDatabaseDocumentInternal();
+		return OSchemaSnapshot.get(db).getClass(db, className);
 	}
 	
 	
@@ -64,6 +76,34 @@ public class OClassModel extends PrototypeLoadableDetachableModel<OClass>{
 		}
 	}
 
+	/**
+	 * Plain name of a class is written as a string instead of a {@link Model}
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		if(classNameModel==null) {
+			out.writeByte(NO_NAME_MODEL);
+		} else if(classNameModel.getClass()==Model.class) {
+			out.writeByte(PLAIN_NAME);
+			out.writeObject(classNameModel.getObject());
+		} else {
+			out.writeByte(CUSTOM_NAME_MODEL);
+			out.writeObject(classNameModel);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		byte state = in.readByte();
+		if(state==PLAIN_NAME) {
+			String className = (String) in.readObject();
+			classNameModel = Model.of(className!=null?className.intern():null);
+		} else if(state==CUSTOM_NAME_MODEL) {
+			classNameModel = (IModel<String>) in.readObject();
+		}
+	}
+
 	@Override
 	public Class<OClass> getObjectClass() {
 		return OClass.class;
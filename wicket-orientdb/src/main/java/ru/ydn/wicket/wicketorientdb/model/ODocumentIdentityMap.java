@@ -0,0 +1,206 @@
+package ru.ydn.wicket.wicketorientdb.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.OElement;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+/**
+ * Request scoped identity map of {@link ODocument}s.
+ * Map is opt-in: it's used by {@link ODocumentModel}s only after {@link #enable()} was called for current {@link RequestCycle}.
+ * All {@link ORID}s registered as pending are loaded by single query upon first load of any of them,
+ * so models which point to the same or to already prefetched records don't hit the database again.
+ * Map is bound to the database which was active upon creation and it's cleared upon detach of {@link RequestCycle}.
+ * Deleted documents are evicted by {@link ODocumentIdentityMapEvictionHook}
+ */
+public class ODocumentIdentityMap {
+	private static final Logger LOG = LoggerFactory.getLogger(ODocumentIdentityMap.class);
+
+	private static final MetaDataKey<ODocumentIdentityMap> IDENTITY_MAP_KEY = new MetaDataKey<ODocumentIdentityMap>() {
+		private static final long serialVersionUID = 1L;
+	};
+
+	private static final int MAX_BATCH_SIZE = 500;
+
+	private final ODatabaseDocument db;
+	private final Map<ORID, ODocument> documents = new HashMap<ORID, ODocument>();
+	private final Set<ORID> pending = new LinkedHashSet<ORID>();
+	private long loadsAvoided;
+	private long queries;
+
+	private ODocumentIdentityMap(ODatabaseDocument db) {
+		this.db = db;
+	}
+
+	/**
+	 * Register {@link ORID} to be loaded by next batch
+	 * @param rid {@link ORID} to register
+	 */
+	public void register(ORID rid) {
+		if(rid!=null && rid.isPersistent() && !documents.containsKey(rid)) pending.add(rid);
+	}
+
+	/**
+	 * Register all {@link ORID}s to be loaded by next batch
+	 * @param rids {@link ORID}s to register
+	 */
+	public void registerAll(Collection<ORID> rids) {
+		for (ORID rid : rids) register(rid);
+	}
+
+	/**
+	 * Load {@link ODocument} from the map or from the database together with all pending {@link ORID}s
+	 * @param rid {@link ORID} to load
+	 * @return loaded {@link ODocument}
+	 */
+	public ODocument load(ORID rid) {
+		ODocument doc = documents.get(rid);
+		if(doc!=null) {
+			loadsAvoided++;
+			return doc;
+		}
+		pending.add(rid);
+		//Nothing else to batch with: plain load is cheaper than a query
+		if(pending.size()>1) {
+			fetchPending();
+			doc = documents.get(rid);
+		} else {
+			pending.clear();
+		}
+		if(doc==null) {
+			//Not visible for the query: load directly to keep original behavior and exceptions
+			queries++;
+			doc = rid.getRecord();
+			if(doc!=null) documents.put(rid, doc);
+		}
+		return doc;
+	}
+
+	/**
+	 * Load all pending {@link ORID}s
+	 */
+	public void fetchPending() {
+		if(pending.isEmpty()) return;
+		List<ORID> batch = new ArrayList<ORID>(Math.min(pending.size(), MAX_BATCH_SIZE));
+		for (ORID rid : pending) {
+			batch.add(rid);
+			if(batch.size()>=MAX_BATCH_SIZE) {
+				fetch(batch);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()) fetch(batch);
+		pending.clear();
+	}
+
+	private void fetch(List<ORID> rids) {
+		queries++;
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("rids", rids);
+		try(OResultSet result = db.query("select from :rids", params)) {
+			while(result.hasNext()) {
+				OResult row = result.next();
+				OElement element = row.getElement().orElse(null);
+				if(element instanceof ODocument) documents.put(element.getIdentity(), (ODocument) element);
+			}
+		}
+	}
+
+	/**
+	 * Remove {@link ODocument} from the map
+	 * @param rid {@link ORID} of {@link ODocument} to remove
+	 */
+	public void evict(ORID rid) {
+		documents.remove(rid);
+		pending.remove(rid);
+	}
+
+	/**
+	 * @return number of loads which were served by the map without a query
+	 */
+	public long getLoadsAvoided() {
+		return loadsAvoided;
+	}
+
+	/**
+	 * @return number of queries executed by the map
+	 */
+	public long getQueries() {
+		return queries;
+	}
+
+	/**
+	 * @return number of {@link ODocument}s in the map
+	 */
+	public int size() {
+		return documents.size();
+	}
+
+	/**
+	 * Enable {@link ODocumentIdentityMap} for current {@link RequestCycle}.
+	 * Map is created if required and if current database is the same as one used by map
+	 * @return {@link ODocumentIdentityMap} or null if there is no request or map can't be used for current database
+	 */
+	public static ODocumentIdentityMap enable() {
+		RequestCycle cycle = RequestCycle.get();
+		if(cycle==null) return null;
+		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
+		if(db==null || db.isClosed()) return null;
+		ODocumentIdentityMap map = cycle.getMetaData(IDENTITY_MAP_KEY);
+		if(map==null || map.db.isClosed()) {
+			map = new ODocumentIdentityMap(db);
+			cycle.setMetaData(IDENTITY_MAP_KEY, map);
+		}
+		//Different database, for example, under sudo: don't mix records
+		return map.db==db?map:null;
+	}
+
+	/**
+	 * Obtain {@link ODocumentIdentityMap} for current {@link RequestCycle} if it was enabled
+	 * @return {@link ODocumentIdentityMap} or null if map was not enabled or can't be used for current database
+	 */
+	public static ODocumentIdentityMap get() {
+		ODocumentIdentityMap map = lookup(RequestCycle.get());
+		if(map==null || map.db.isClosed()) return null;
+		return map.db==ODatabaseRecordThreadLocal.instance().getIfDefined()?map:null;
+	}
+
+	/**
+	 * @param cycle {@link RequestCycle} to lookup map for
+	 * @return {@link ODocumentIdentityMap} of the {@link RequestCycle} if it was already created
+	 */
+	public static ODocumentIdentityMap lookup(RequestCycle cycle) {
+		return cycle!=null?cycle.getMetaData(IDENTITY_MAP_KEY):null;
+	}
+
+	/**
+	 * Clear {@link ODocumentIdentityMap} of specified {@link RequestCycle}
+	 * @param cycle {@link RequestCycle} to clear map for
+	 */
+	public static void clear(RequestCycle cycle) {
+		ODocumentIdentityMap map = lookup(cycle);
+		if(map!=null) {
+			if(LOG.isDebugEnabled()) {
+				LOG.debug("Request identity map: {} records, {} loads avoided, {} queries",
+							map.size(), map.getLoadsAvoided(), map.getQueries());
+			}
+			cycle.setMetaData(IDENTITY_MAP_KEY, null);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package ru.ydn.wicket.wicketorientdb.model;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Hook which evicts deleted documents from {@link ODocumentIdentityMap} of current request
+ */
+public class ODocumentIdentityMapEvictionHook extends ODocumentHookAbstract {
+
+	public ODocumentIdentityMapEvictionHook(ODatabaseDocument database) {
+		super(database);
+	}
+
+	@Override
+	public void onRecordAfterDelete(ODocument iDocument) {
+		ODocumentIdentityMap identityMap = ODocumentIdentityMap.get();
+		if(identityMap!=null) identityMap.evict(iDocument.getIdentity());
+	}
+
+	@Override
+	public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
+		return DISTRIBUTED_EXECUTION_MODE.BOTH;
+	}
+}
@@ -1,5 +1,10 @@
 package ru.ydn.wicket.wicketorientdb.model;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import org.apache.wicket.Component;
 import org.apache.wicket.model.IComponentInheritedModel;
 import org.apache.wicket.model.IModel;
@@ -8,14 +13,21 @@ import org.apache.wicket.model.IWrapModel;
 import org.apache.wicket.model.LoadableDetachableModel;
 
 import ru.ydn.wicket.wicketorientdb.OrientDbWebSession;
+import ru.ydn.wicket.wicketorientdb.TransactionRequestCycleListener;
 
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.exception.ORecordNotFoundException;
 import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ODocumentInternal;
+import com.orientechnologies.orient.core.serialization.serializer.record.ORecordSerializer;
+import com.orientechnologies.orient.core.serialization.serializer.record.ORecordSerializerFactory;
 
 /**
  * Model for storing of {@link ODocument}
@@ -23,8 +35,13 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
 public class ODocumentModel extends LoadableDetachableModel<ODocument> implements IObjectClassAwareModel<ODocument>, IComponentInheritedModel<ODocument>, IOClassAware
 {
 	private static final long serialVersionUID = 1L;
-	private ORID orid;
-	private ODocument savedDocument;
+	
+	private static final byte STATE_NULL = 0;
+	private static final byte STATE_RID = 1;
+	private static final byte STATE_DOCUMENT = 2;
+	
+	private transient ORID orid;
+	private transient ODocument savedDocument;
 	
 	private boolean autoSave=false;
 	
@@ -72,7 +89,8 @@ public class ODocumentModel extends LoadableDetachableModel<ODocument> implement
 		if(orid!=null && orid.isValid())
 		{
 			try {
-				return orid.getRecord();
+				ODocumentIdentityMap identityMap = orid.isPersistent()?ODocumentIdentityMap.get():null;
+				return identityMap!=null?identityMap.load(orid):orid.getRecord();
 			} catch (ORecordNotFoundException e) {
 				return null;
 			}
@@ -83,6 +101,12 @@ public class ODocumentModel extends LoadableDetachableModel<ODocument> implement
 		}
 	}
 	
+	@Override
+	public void setObject(ODocument object) {
+		TransactionRequestCycleListener.beginPendingTransaction();
+		super.setObject(object);
+	}
+	
 	@Override
     public void detach()
     {
@@ -91,7 +115,11 @@ public class ODocumentModel extends LoadableDetachableModel<ODocument> implement
 			ODocument doc = getObject();
 			if(doc!=null)
 			{
-				if(autoSave) doc.save();
+				if(autoSave)
+				{
+					TransactionRequestCycleListener.beginPendingTransaction();
+					doc.save();
+				}
 		        this.orid = doc.getIdentity();
 		        if(orid!=null && orid.isValid())
 		        {
@@ -118,6 +146,80 @@ public class ODocumentModel extends LoadableDetachableModel<ODocument> implement
 	
 	
 
+	/**
+	 * Compact form of the model state: persisted document is written as cluster id and position in variable length format,
+	 * not yet saved document is written by record serializer of the database prefixed by name of the serializer
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		if(orid!=null) {
+			out.writeByte(STATE_RID);
+			writeVarLong(out, orid.getClusterId());
+			writeVarLong(out, orid.getClusterPosition());
+		} else if(savedDocument!=null) {
+			out.writeByte(STATE_DOCUMENT);
+			ODatabaseDocumentInternal db = ODatabaseRecordThreadLocal.instance().getIfDefined();
+			ORecordSerializer serializer = db!=null?db.getSerializer():ORecordSerializerFactory.instance().getDefaultRecordSerializer();
+			byte[] content = serializer.toStream(savedDocument);
+			out.writeUTF(serializer.getName());
+			//Binary format of the database doesn't keep class of a record
+			String className = savedDocument.getClassName();
+			out.writeUTF(className!=null?className:"");
+			out.writeInt(content.length);
+			out.write(content);
+		} else {
+			out.writeByte(STATE_NULL);
+		}
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		byte state = in.readByte();
+		switch (state) {
+			case STATE_RID:
+				int clusterId = (int) readVarLong(in);
+				orid = new ORecordId(clusterId, readVarLong(in));
+				break;
+			case STATE_DOCUMENT:
+				String format = in.readUTF();
+				ORecordSerializer serializer = ORecordSerializerFactory.instance().getFormat(format);
+				if(serializer==null) throw new InvalidObjectException("Unknown record serializer: "+format);
+				String className = in.readUTF();
+				byte[] content = new byte[in.readInt()];
+				in.readFully(content);
+				savedDocument = new ODocument();
+				serializer.fromStream(content, savedDocument, null);
+				if(!className.isEmpty()) ODocumentInternal.fillClassNameIfNeeded(savedDocument, className);
+				//Document is not saved yet: it should be stored upon save()
+				savedDocument.setDirty();
+				break;
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Write signed long in zigzag variable length format: small values take 1-2 bytes
+	 */
+	private static void writeVarLong(ObjectOutputStream out, long value) throws IOException {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while((zigzag & ~0x7FL)!=0) {
+			out.writeByte((int)((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		out.writeByte((int) zigzag);
+	}
+	
+	private static long readVarLong(ObjectInputStream in) throws IOException {
+		long zigzag = 0;
+		for(int shift=0; shift<64; shift+=7) {
+			byte b = in.readByte();
+			zigzag |= (long)(b & 0x7F) << shift;
+			if((b & 0x80)==0) return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+		throw new InvalidObjectException("Malformed variable length long");
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
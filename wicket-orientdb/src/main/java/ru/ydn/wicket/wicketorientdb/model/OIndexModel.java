@@ -1,10 +1,13 @@
 package ru.ydn.wicket.wicketorientdb.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
-import com.orientechnologies.orient.core.index.OIndexManagerAbstract;
 import org.apache.wicket.model.IModel;
 
 import ru.ydn.wicket.wicketorientdb.OrientDbWebSession;
+import ru.ydn.wicket.wicketorientdb.utils.OSchemaSnapshot;
 
 import com.orientechnologies.orient.core.index.OIndex;
 import com.orientechnologies.orient.core.index.OIndexDefinition;
@@ -39,8 +42,7 @@ public class OIndexModel extends PrototypeLoadableDetachableModel<OIndex>
 	protected OIndex loadInstance() {
 		OClass oClass = classModel!=null?classModel.getObject():null;
 		ODatabaseDocumentInternal database = OrientDbWebSession.get().getDatabaseDocumentInternal();
-		OIndexManagerAbstract indexManager = database.getMetadata().getIndexManagerInternal();
-		return oClass != null ? indexManager.getClassIndex(database, oClass.getName(), indexName) : indexManager.getIndex(database, indexName);
+		return OSchemaSnapshot.get(database).getIndex(database, oClass != null ? oClass.getName() : null, indexName);
 	}
 
 	@Override
@@ -66,6 +68,11 @@ public class OIndexModel extends PrototypeLoadableDetachableModel<OIndex>
 		return (Class)OIndex.class;
 	}
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(indexName!=null) indexName = indexName.intern();
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
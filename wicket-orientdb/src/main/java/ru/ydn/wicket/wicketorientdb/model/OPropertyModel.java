@@ -1,8 +1,12 @@
 package ru.ydn.wicket.wicketorientdb.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import org.apache.wicket.model.IModel;
 
 import ru.ydn.wicket.wicketorientdb.OrientDbWebSession;
+import ru.ydn.wicket.wicketorientdb.utils.OSchemaSnapshot;
 
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
@@ -38,7 +42,9 @@ public class OPropertyModel extends PrototypeLoadableDetachableModel<OProperty>
 	@Override
 	protected OProperty loadInstance() {
 			OClass oClass = classModel!=null?classModel.getObject():null;
-			return oClass!=null && propertyName!=null?oClass.getProperty(propertyName):null;
+			return oClass!=null && propertyName!=null
+					?OSchemaSnapshot.get(OrientDbWebSession.get().getDatabaseDocumentInternal()).getProperty(oClass, propertyName)
+					:null;
 	}
 	
 
@@ -74,6 +80,11 @@ public class OPropertyModel extends PrototypeLoadableDetachableModel<OProperty>
 		return OProperty.class;
 	}
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(propertyName!=null) propertyName = propertyName.intern();
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -11,6 +11,8 @@ import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.OElement;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 
+import ru.ydn.wicket.wicketorientdb.utils.query.IQueryCountStrategy;
+
 /**
  * Provider of data by quering of OrientDB
  * @param <K> The provider object type
@@ -64,8 +66,50 @@ public class OQueryDataProvider <K> extends AbstractFilteredProvider<K, String>
         return this;
     }
 
+    /**
+     * Enable or disable keyset (seek) pagination
+     * @param keysetPaging true to enable keyset pagination
+     * @return this {@link OQueryDataProvider}
+     * @see OQueryModel#setKeysetPaging(boolean)
+     */
+    public OQueryDataProvider<K> setKeysetPaging(boolean keysetPaging)
+    {
+        model.setKeysetPaging(keysetPaging);
+        return this;
+    }
+
+    /**
+     * Set strategy for calculation of size of the data
+     * @param countStrategy {@link IQueryCountStrategy} to be used
+     * @return this {@link OQueryDataProvider}
+     * @see OQueryModel#setCountStrategy(IQueryCountStrategy)
+     */
+    public OQueryDataProvider<K> setCountStrategy(IQueryCountStrategy countStrategy)
+    {
+        model.setCountStrategy(countStrategy);
+        return this;
+    }
+
+    /**
+     * Enable or disable obtaining of page and total size by single query
+     * @param combinedPaging true to obtain page and size by single query
+     * @return this {@link OQueryDataProvider}
+     * @see OQueryModel#setCombinedPaging(boolean)
+     */
+    public OQueryDataProvider<K> setCombinedPaging(boolean combinedPaging)
+    {
+        model.setCombinedPaging(combinedPaging);
+        return this;
+    }
+
     @Override
     public Iterator<K> iterator(long first, long count)
+    {
+        applySort();
+        return (Iterator<K>)model.iterator(first, count);        
+    }
+    
+    private void applySort()
     {
         SortParam<String> sort = getSort();
         if(sort!=null)
@@ -73,7 +117,6 @@ public class OQueryDataProvider <K> extends AbstractFilteredProvider<K, String>
             model.setSortableParameter(sort.getProperty());
             model.setAscending(sort.isAscending());
         }
-        return (Iterator<K>)model.iterator(first, count);        
     }
     
     protected OClass probeOClass(int probeLimit) {
@@ -109,6 +152,7 @@ public class OQueryDataProvider <K> extends AbstractFilteredProvider<K, String>
     @Override
     public long size()
     {
+        if(model.isCombinedPaging()) applySort();
         return model.size();
     }
 
@@ -1,25 +1,34 @@
 package ru.ydn.wicket.wicketorientdb.model;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import com.orientechnologies.orient.core.db.ODatabaseSession;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.OElement;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.executor.OResult;
 import com.orientechnologies.orient.core.sql.executor.OResultSet;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.extensions.markup.html.repeater.data.sort.SortOrder;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
+import org.apache.wicket.util.lang.Args;
 import ru.ydn.wicket.wicketorientdb.OrientDbWebSession;
 import ru.ydn.wicket.wicketorientdb.utils.ConvertToODocumentFunction;
 import ru.ydn.wicket.wicketorientdb.utils.DocumentWrapperTransformer;
 import ru.ydn.wicket.wicketorientdb.utils.GetObjectFunction;
+import ru.ydn.wicket.wicketorientdb.utils.OResultSetIterator;
 import ru.ydn.wicket.wicketorientdb.utils.OSchemaUtils;
+import ru.ydn.wicket.wicketorientdb.utils.query.ExactQueryCountStrategy;
+import ru.ydn.wicket.wicketorientdb.utils.query.IQueryCountStrategy;
 import ru.ydn.wicket.wicketorientdb.utils.query.IQueryManager;
+import ru.ydn.wicket.wicketorientdb.utils.query.ParsedQueryManager;
 import ru.ydn.wicket.wicketorientdb.utils.query.StringQueryManager;
 import ru.ydn.wicket.wicketorientdb.utils.query.filter.FilterCriteriaType;
 import ru.ydn.wicket.wicketorientdb.utils.query.filter.IFilterCriteria;
@@ -27,6 +36,7 @@ import ru.ydn.wicket.wicketorientdb.utils.query.filter.IFilterCriteriaManager;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -57,15 +67,43 @@ public class OQueryModel<K> extends LoadableDetachableModel<List<K>> implements
 			return (GetObjectAndWrapDocumentsFunction<T>)INSTANCE;
 		}
 	}
+	
+	/**
+	 * Position of the last record of already rendered page: used for keyset pagination
+	 */
+	private static class KeysetBookmark implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		private final Object sortKey;
+		private final ORID rid;
+		
+		public KeysetBookmark(Object sortKey, ORID rid) {
+			this.sortKey = sortKey;
+			this.rid = rid;
+		}
+	}
+	
 	private static final long serialVersionUID = 1L;
+	private static final int MAX_KEYSET_BOOKMARKS = 64;
+	private static final Pattern KEYSET_SORTABLE_PATTERN = Pattern.compile("@?\\w+");
 
 	private IQueryManager queryManager;
     private Function<OElement, K> transformer;
     private Map<String, IModel<Object>> params = new HashMap<String, IModel<Object>>();
     private String sortableParameter=null;
     private boolean isAscending =true;
+    private boolean keysetPaging = false;
+    private TreeMap<Long, KeysetBookmark> keysetBookmarks = new TreeMap<Long, KeysetBookmark>();
+    private int keysetSignature;
+    private IQueryCountStrategy countStrategy = ExactQueryCountStrategy.INSTANCE;
+    private boolean combinedPaging = false;
+    private long lastFirst = -1;
+    private long lastCount = -1;
     
     private transient Long size;
+    private transient String pageSql;
+    private transient Map<String, Object> pageParams;
+    private transient List<OElement> page;
     
     private IModel<OClass> probedClassModel;
     
@@ -90,10 +128,19 @@ public class OQueryModel<K> extends LoadableDetachableModel<List<K>> implements
 	 * @param sql SQL to be executed to obtain data
 	 * @param transformer transformer for wrapping of {@link ODocument} ot required type
 	 */
-    @SuppressWarnings("unchecked")
 	public OQueryModel(String sql, Function<OElement, K> transformer)
     {
-    	this.queryManager = new StringQueryManager(sql);
+    	this(new StringQueryManager(sql), transformer);
+    }
+
+    /**
+	 * @param queryManager {@link IQueryManager} for SQL to be executed: for example, {@link ParsedQueryManager}
+	 * @param transformer transformer for wrapping of {@link ODocument} ot required type
+	 */
+    @SuppressWarnings("unchecked")
+	public OQueryModel(IQueryManager queryManager, Function<OElement, K> transformer)
+    {
+    	this.queryManager = queryManager;
         this.transformer = transformer != null ? transformer : (Function<OElement, K>) ConvertToODocumentFunction.INSTANCE;
         if(queryManager.hasOrderBy())
         {
@@ -169,16 +216,16 @@ public class OQueryModel<K> extends LoadableDetachableModel<List<K>> implements
 	protected List<K> load() {
     	ODatabaseSession db = OrientDbWebSession.get().getDatabaseSession();
         String sql = prepareSql(null, null);
-        try(OResultSet result = db.query(sql, prepareParams())) {
+        try(OResultSet result = query(db, sql, prepareParams())) {
 	        if (transformer != null) {
 	            return result.elementStream()
 	                    .map(e -> transformer.apply(e))
-	                    .collect(Collectors.toCollection(LinkedList::new));
+	                    .collect(Collectors.toCollection(ArrayList::new));
 	        }
 	
 	        return result.elementStream()
 	                .map(e -> (K) e)
-	                .collect(Collectors.toCollection(LinkedList::new));
+	                .collect(Collectors.toCollection(ArrayList::new));
         }
     }
 
@@ -204,20 +251,110 @@ public class OQueryModel<K> extends LoadableDetachableModel<List<K>> implements
 	 */
     @SuppressWarnings("unchecked")
 	public <T> Iterator<T> iterator(long first, long count, Function<OElement, T> transformer) {
+    	if(keysetPaging && count>0 && isKeysetSortable(sortableParameter)) {
+    		return keysetIterator(first, count, transformer);
+    	}
     	ODatabaseSession db = OrientDbWebSession.get().getDatabaseSession();
-
-        try(OResultSet result = db.query(prepareSql((int) first, (int) count), prepareParams())) {
-
-	        if (transformer != null) {
-	            return result.elementStream()
-	                    .map(transformer)
-	                    .iterator();
-	        }
-	
-	    	return result.elementStream()
-	                .map(e -> (T) e)
-	                .iterator();
-        }
+    	Map<String, Object> params = preparePageParams(first, count);
+    	String sql = queryManager.preparePagedSql(true, count>0, sortableParameter, isAscending);
+    	if(isCombinedPagingApplicable() && count>0) {
+    		lastFirst = first;
+    		lastCount = count;
+    		if(page==null && size==null) loadPageAndSize(db, sql, params);
+    		if(page!=null && sql.equals(pageSql) && params.equals(pageParams)) {
+    			return transformer!=null ? Iterators.transform(page.iterator(), transformer) : (Iterator<T>) page.iterator();
+    		}
+    	}
+    	return new OResultSetIterator<T>(query(db, sql, params), transformer);
+    }
+    
+    private Map<String, Object> preparePageParams(long first, long count) {
+    	Map<String, Object> params = new HashMap<String, Object>(prepareParams());
+    	params.put(IQueryManager.SKIP_PARAM, (int) first);
+    	if(count>0) params.put(IQueryManager.LIMIT_PARAM, (int) count);
+    	return params;
+    }
+    
+    private boolean isCombinedPagingApplicable() {
+    	return combinedPaging && countStrategy instanceof ExactQueryCountStrategy;
+    }
+    
+    /**
+     * Obtain page and total size of the data by single query. Both are kept till detach of the model
+     */
+    private void loadPageAndSize(ODatabaseSession db, String sql, Map<String, Object> params) {
+    	String combinedSql = "SELECT $page AS page, $total[0].count AS total LET $page = (" + sql + "), "
+    							+ "$total = (" + queryManager.getCountSql() + ")";
+    	try(OResultSet result = query(db, combinedSql, params)) {
+    		List<OElement> elements = new ArrayList<OElement>();
+    		long total = 0;
+    		if(result.hasNext()) {
+    			OResult row = result.next();
+    			Collection<?> rows = row.getProperty("page");
+    			if(rows!=null) {
+    				for (Object pageRow : rows) {
+    					if(pageRow instanceof OResult) ((OResult) pageRow).getElement().ifPresent(elements::add);
+    					else if(pageRow instanceof OElement) elements.add((OElement) pageRow);
+    				}
+    			}
+    			Number totalNumber = row.getProperty("total");
+    			if(totalNumber!=null) total = totalNumber.longValue();
+    		}
+    		page = elements;
+    		pageSql = sql;
+    		pageParams = params;
+    		size = total;
+    	}
+    }
+    
+    /**
+     * Obtain page by keyset (seek) pagination: nearest bookmark before required page is used
+     * as starting point, so SKIP is required only for random jumps
+     */
+	private <T> Iterator<T> keysetIterator(final long first, long count, Function<OElement, T> transformer) {
+    	ODatabaseSession db = OrientDbWebSession.get().getDatabaseSession();
+    	Map<String, Object> params = new HashMap<String, Object>(prepareParams());
+    	int signature = Objects.hash(queryManager.prepareKeysetSql(false, false, sortableParameter, isAscending, false), params);
+    	if(signature!=keysetSignature) {
+    		keysetBookmarks.clear();
+    		keysetSignature = signature;
+    	}
+    	Map.Entry<Long, KeysetBookmark> bookmark = keysetBookmarks.floorEntry(first);
+    	long skip = bookmark!=null ? first - bookmark.getKey() : first;
+    	if(bookmark!=null) {
+    		params.put(IQueryManager.KEYSET_SORT_KEY_PARAM, bookmark.getValue().sortKey);
+    		params.put(IQueryManager.KEYSET_RID_PARAM, bookmark.getValue().rid);
+    	}
+    	if(skip>0) params.put(IQueryManager.SKIP_PARAM, (int) skip);
+    	params.put(IQueryManager.LIMIT_PARAM, (int) count);
+    	String sql = queryManager.prepareKeysetSql(skip>0, true, sortableParameter, isAscending, bookmark!=null);
+    	return new OResultSetIterator<T>(query(db, sql, params), transformer) {
+    		@Override
+    		protected void onExhausted(long rowsRead, OElement lastElement) {
+    			if(lastElement!=null) rememberKeysetBookmark(first+rowsRead, lastElement);
+    		}
+    	};
+    }
+    
+    private void rememberKeysetBookmark(long position, OElement last) {
+    	ORID rid = last.getIdentity();
+    	if(rid==null || !rid.isPersistent()) return;
+    	Object sortKey = null;
+    	if(sortableParameter!=null && !"@rid".equals(sortableParameter)) {
+    		sortKey = last.getProperty(sortableParameter);
+    		if(sortKey instanceof OIdentifiable) sortKey = ((OIdentifiable) sortKey).getIdentity();
+    		//Null values and non-serializable keys can't be used for seeking: SKIP will be used instead
+    		if(!(sortKey instanceof Serializable)) return;
+    	}
+    	keysetBookmarks.put(position, new KeysetBookmark(sortKey, rid));
+    	if(keysetBookmarks.size()>MAX_KEYSET_BOOKMARKS) {
+    		if(keysetBookmarks.firstKey()<position) keysetBookmarks.pollFirstEntry();
+    		else keysetBookmarks.pollLastEntry();
+    	}
+    }
+    
+    private static boolean isKeysetSortable(String sortBy) {
+    	return sortBy==null || KEYSET_SORTABLE_PATTERN.matcher(sortBy).matches();
     }
     
     /**
@@ -227,7 +364,11 @@ public class OQueryModel<K> extends LoadableDetachableModel<List<K>> implements
      */
     protected OClass probeOClass(int probeLimit) {
     	Iterator<ODocument> it = iterator(0, probeLimit, null);
-    	return OSchemaUtils.probeOClass(it, probeLimit);
+    	try {
+    		return OSchemaUtils.probeOClass(it, probeLimit);
+    	} finally {
+    		OResultSetIterator.closeQuietly(it);
+    	}
     }
     
     @Override
@@ -251,17 +392,70 @@ public class OQueryModel<K> extends LoadableDetachableModel<List<K>> implements
     public long size() {
     	if (size == null) {
 	    	ODatabaseSession db = OrientDbWebSession.get().getDatabaseSession();
-	    	try(OResultSet result = db.query(queryManager.getCountSql(), prepareParams())) {
-		    	if (result.hasNext()) {
-		    		Number sizeNumber = result.next().getProperty("count");
-		    		size = sizeNumber != null ? sizeNumber.longValue() : 0;
-		    	} else {
-		    		size = 0L;
-		    	}
+	    	if(isCombinedPagingApplicable() && lastCount>0 && !(keysetPaging && isKeysetSortable(sortableParameter))) {
+	    		//Predict that the same page as previously will be requested
+	    		loadPageAndSize(db, queryManager.preparePagedSql(true, true, sortableParameter, isAscending), 
+	    							preparePageParams(lastFirst, lastCount));
+	    	} else {
+	    		size = countStrategy.count(db, queryManager, prepareParams());
 	    	}
     	}
     	return size;
     }
+    
+    /**
+     * Execute query. All queries of this model for obtaining of data are executed through this method
+     * @param db {@link ODatabaseSession} to execute query on
+     * @param sql sql to execute
+     * @param params parameters of the query
+     * @return {@link OResultSet} with results
+     */
+    protected OResultSet query(ODatabaseSession db, String sql, Map<String, Object> params) {
+    	return db.query(sql, params);
+    }
+    
+    /**
+     * @return true if page and size are obtained by single query
+     */
+    public boolean isCombinedPaging()
+    {
+    	return combinedPaging;
+    }
+    
+    /**
+     * Enable or disable obtaining of page and total size by single query.
+     * Both page and size are kept till detach of the model. If {@link #size()} is requested before a page,
+     * model predicts that the same page as in previous request will be requested.
+     * Works only with exact count strategy and without keyset pagination.
+     * @param combinedPaging true to obtain page and size by single query
+     * @return this {@link OQueryModel}
+     */
+    public OQueryModel<K> setCombinedPaging(boolean combinedPaging)
+    {
+    	this.combinedPaging = combinedPaging;
+    	return this;
+    }
+    
+    /**
+     * @return {@link IQueryCountStrategy} which is used for calculation of size
+     */
+    public IQueryCountStrategy getCountStrategy()
+    {
+    	return countStrategy;
+    }
+    
+    /**
+     * Set strategy for calculation of size of the data
+     * @param countStrategy {@link IQueryCountStrategy} to be used: exact, cached or estimated
+     * @return this {@link OQueryModel}
+     */
+    public OQueryModel<K> setCountStrategy(IQueryCountStrategy countStrategy)
+    {
+    	Args.notNull(countStrategy, "countStrategy");
+    	this.countStrategy = countStrategy;
+    	size = null;
+    	return this;
+    }
 
     private Map<String, Object> prepareParams() {
         for (IFilterCriteriaManager manager : queryManager.getFilterCriteriaManagers()) {
@@ -293,6 +487,29 @@ public class OQueryModel<K> extends LoadableDetachableModel<List<K>> implements
         return this;
     }
 
+    /**
+     * @return true if keyset (seek) pagination is enabled
+     */
+    public boolean isKeysetPaging()
+    {
+    	return keysetPaging;
+    }
+    
+    /**
+     * Enable or disable keyset (seek) pagination. If enabled, model remembers last sort key and @rid
+     * of every page obtained by {@link #iterator(long, long)} and selects next pages relatively to them
+     * instead of skipping all previous records. Results are additionally ordered by @rid.
+     * Pagination by SKIP is still used for random jumps and for sorting by complex expressions.
+     * @param keysetPaging true to enable keyset pagination
+     * @return this {@link OQueryModel}
+     */
+    public OQueryModel<K> setKeysetPaging(boolean keysetPaging)
+    {
+    	this.keysetPaging = keysetPaging;
+    	keysetBookmarks.clear();
+    	return this;
+    }
+
     /**
      * @return paramer to sort on
      */
@@ -336,6 +553,9 @@ public class OQueryModel<K> extends LoadableDetachableModel<List<K>> implements
         if(probedClassModel!=null)probedClassModel.detach();
         super.detach();
         size=null;
+        page=null;
+        pageSql=null;
+        pageParams=null;
     }
     
 }
\ No newline at end of file
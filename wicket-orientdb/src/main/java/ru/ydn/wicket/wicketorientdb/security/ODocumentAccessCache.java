@@ -0,0 +1,202 @@
+package ru.ydn.wicket.wicketorientdb.security;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.RequestCycle;
+
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OImmutableClass;
+import com.orientechnologies.orient.core.metadata.security.ORestrictedOperation;
+import com.orientechnologies.orient.core.metadata.security.ORole;
+import com.orientechnologies.orient.core.metadata.security.ORule;
+import com.orientechnologies.orient.core.metadata.security.OSecurityRole;
+import com.orientechnologies.orient.core.metadata.security.OSecurityUser;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ODocumentInternal;
+
+/**
+ * Request scoped cache of record level security decisions for {@link ODocument}s.
+ * Identities of the user and all his roles (including parent ones) are collected just once per request,
+ * so sets of documents can be evaluated against a set of {@link OrientPermission}s in one pass.
+ * Decisions are bound to a version of a document and to a version of security: see {@link OPermissionDecisionCache}
+ */
+public class ODocumentAccessCache {
+
+	private static final MetaDataKey<ODocumentAccessCache> ACCESS_CACHE_KEY = new MetaDataKey<ODocumentAccessCache>() {
+		private static final long serialVersionUID = 1L;
+	};
+
+	private final ODatabaseDocumentInternal db;
+	private final OSecurityUser user;
+	private final long securityVersion;
+	private final Set<ORID> identities;
+	private final boolean bypassRestricted;
+	private final Map<ORID, Decisions> decisions = new HashMap<ORID, Decisions>();
+	private long evaluations;
+
+	/**
+	 * Decisions for a single version of a document: bits are ordinals of {@link OrientPermission}
+	 */
+	private static final class Decisions {
+		private final int version;
+		private int evaluated;
+		private int allowed;
+
+		public Decisions(int version) {
+			this.version = version;
+		}
+	}
+
+	private ODocumentAccessCache(ODatabaseDocumentInternal db) {
+		this.db = db;
+		this.user = db.getUser();
+		this.securityVersion = OPermissionDecisionCache.getSecurityVersion();
+		if(user!=null) {
+			identities = new HashSet<ORID>();
+			if(user.getIdentity()!=null) identities.add(user.getIdentity().getIdentity());
+			for (OSecurityRole role : user.getRoles()) {
+				while(role!=null && role.getIdentity()!=null && identities.add(role.getIdentity().getIdentity())) {
+					role = role.getParentRole();
+				}
+			}
+			bypassRestricted = user.isRuleDefined(ORule.ResourceGeneric.BYPASS_RESTRICTED, null)
+					&& user.checkIfAllowed(ORule.ResourceGeneric.BYPASS_RESTRICTED, null, ORole.PERMISSION_READ)!=null;
+		} else {
+			identities = null;
+			bypassRestricted = true;
+		}
+	}
+
+	/**
+	 * Evaluate record level security for all documents and permissions in one pass
+	 * @param docs {@link ODocument}s to evaluate
+	 * @param permissions {@link OrientPermission}s to evaluate
+	 */
+	public void evaluate(Collection<? extends ODocument> docs, OrientPermission... permissions) {
+		for (ODocument doc : docs) {
+			if(doc!=null) isRecordAllowed(doc, permissions);
+		}
+	}
+
+	/**
+	 * Check that all required permissions present for specified {@link ODocument}: both for its class and for the record
+	 * @param doc {@link ODocument} to check security rights for
+	 * @param permissions {@link OrientPermission}s to check
+	 * @return true if all permissions are allowable
+	 */
+	public boolean isAllowed(ODocument doc, OrientPermission... permissions) {
+		return OSecurityHelper.isAllowed(doc.getSchemaClass(), permissions) && isRecordAllowed(doc, permissions);
+	}
+
+	/**
+	 * Check record level security for specified {@link ODocument}
+	 * @param doc {@link ODocument} to check security rights for
+	 * @param permissions {@link OrientPermission}s to check
+	 * @return true if all permissions are allowable for the record
+	 */
+	public boolean isRecordAllowed(ODocument doc, OrientPermission... permissions) {
+		ORID rid = doc.getIdentity();
+		Decisions docDecisions = null;
+		if(rid.isPersistent() && !doc.isDirty()) {
+			docDecisions = decisions.get(rid);
+			if(docDecisions==null || docDecisions.version!=doc.getVersion()) {
+				docDecisions = new Decisions(doc.getVersion());
+				decisions.put(rid, docDecisions);
+			}
+		}
+		boolean ret = true;
+		for (OrientPermission permission : permissions) {
+			ORestrictedOperation operation = OSecurityHelper.getRestrictedOperation(permission);
+			if(operation==null) continue;
+			int bit = 1 << permission.ordinal();
+			boolean allowed;
+			if(docDecisions!=null && (docDecisions.evaluated & bit)!=0) {
+				allowed = (docDecisions.allowed & bit)!=0;
+			} else {
+				allowed = evaluate(doc, operation);
+				if(docDecisions!=null) {
+					docDecisions.evaluated |= bit;
+					if(allowed) docDecisions.allowed |= bit;
+				}
+			}
+			ret &= allowed;
+		}
+		return ret;
+	}
+
+	/**
+	 * Same logic as of ORestrictedAccessHook, but over precomputed identities of the user
+	 */
+	private boolean evaluate(ODocument doc, ORestrictedOperation operation) {
+		evaluations++;
+		if(bypassRestricted) return true;
+		OImmutableClass oClass = ODocumentInternal.getImmutableSchemaClass(db, doc);
+		if(oClass==null || !oClass.isRestricted()) return true;
+		Set<OIdentifiable> allowAll = doc.field(ORestrictedOperation.ALLOW_ALL.getFieldName());
+		Set<OIdentifiable> allowOperation = doc.field(operation.getFieldName());
+		if((allowAll==null || allowAll.isEmpty()) && (allowOperation==null || allowOperation.isEmpty())) return false;
+		return containsIdentity(allowAll) || containsIdentity(allowOperation);
+	}
+
+	private boolean containsIdentity(Set<OIdentifiable> allowed) {
+		if(allowed==null) return false;
+		for (OIdentifiable identifiable : allowed) {
+			if(identifiable!=null && identities.contains(identifiable.getIdentity())) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of evaluations of record level security
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	private boolean isValidFor(ODatabaseDocumentInternal db) {
+		if(this.db!=db || securityVersion!=OPermissionDecisionCache.getSecurityVersion()) return false;
+		OSecurityUser currentUser = db.getUser();
+		if(user==null || currentUser==null) return user==currentUser;
+		return Objects.equals(user.getName(), currentUser.getName())
+				&& Objects.equals(user.getIdentity(), currentUser.getIdentity());
+	}
+
+	/**
+	 * Obtain {@link ODocumentAccessCache} for current request and current user.
+	 * Cache is recreated if user, database or security were changed
+	 * @return {@link ODocumentAccessCache} or null if there is no request or database
+	 */
+	public static ODocumentAccessCache get() {
+		RequestCycle cycle = RequestCycle.get();
+		if(cycle==null) return null;
+		ODatabaseDocumentInternal db = ODatabaseRecordThreadLocal.instance().getIfDefined();
+		if(db==null || db.isClosed()) return null;
+		ODocumentAccessCache cache = cycle.getMetaData(ACCESS_CACHE_KEY);
+		if(cache==null || !cache.isValidFor(db)) {
+			cache = new ODocumentAccessCache(db);
+			cycle.setMetaData(ACCESS_CACHE_KEY, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Check that all required permissions present for specified {@link ODocument}.
+	 * Uses {@link ODocumentAccessCache} of current request if it's available
+	 * @param doc {@link ODocument} to check security rights for
+	 * @param permissions {@link OrientPermission}s to check
+	 * @return true if all permissions are allowable
+	 */
+	public static boolean isAllowedCached(ODocument doc, OrientPermission... permissions) {
+		ODocumentAccessCache cache = get();
+		return cache!=null?cache.isAllowed(doc, permissions):OSecurityHelper.isAllowed(doc, permissions);
+	}
+}
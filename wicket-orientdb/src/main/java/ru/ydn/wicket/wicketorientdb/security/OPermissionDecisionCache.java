@@ -0,0 +1,180 @@
+package ru.ydn.wicket.wicketorientdb.security;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.RequestCycle;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.security.ORule.ResourceGeneric;
+import com.orientechnologies.orient.core.metadata.security.OSecurityUser;
+
+import ru.ydn.wicket.wicketorientdb.OrientDbWebApplication;
+
+/**
+ * Cache of decisions about access to resources.
+ * Decisions are cached per request and, if enabled, in application wide cache shared between requests.
+ * Key of a decision contains version of security: it's increased upon any change of users, roles and policies
+ * by {@link OPermissionDecisionCacheInvalidationHook}, so decisions made before change are never used.
+ */
+public class OPermissionDecisionCache {
+
+	private static final AtomicLong SECURITY_VERSION = new AtomicLong();
+	private static final OPermissionDecisionCache SHARED = new OPermissionDecisionCache();
+	private static final int MAX_SHARED_SIZE = 10000;
+
+	private static final MetaDataKey<HashMap<Key, Boolean>> REQUEST_DECISIONS_KEY = new MetaDataKey<HashMap<Key, Boolean>>() {
+		private static final long serialVersionUID = 1L;
+	};
+
+	private final Cache<Key, Boolean> sharedDecisions = CacheBuilder.newBuilder().maximumSize(MAX_SHARED_SIZE).build();
+	private volatile boolean sharedEnabled = false;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Key of a decision
+	 */
+	private static final class Key {
+		private final String database;
+		private final Object userIdentity;
+		private final String userName;
+		private final long securityVersion;
+		private final ResourceGeneric resource;
+		private final String specific;
+		private final int operation;
+		private final int hash;
+
+		public Key(String database, Object userIdentity, String userName, long securityVersion,
+					ResourceGeneric resource, String specific, int operation) {
+			this.database = database;
+			this.userIdentity = userIdentity;
+			this.userName = userName;
+			this.securityVersion = securityVersion;
+			this.resource = resource;
+			this.specific = specific;
+			this.operation = operation;
+			this.hash = Objects.hash(database, userIdentity, userName, securityVersion, resource, specific, operation);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hash == other.hash
+					&& securityVersion == other.securityVersion
+					&& operation == other.operation
+					&& resource == other.resource
+					&& Objects.equals(specific, other.specific)
+					&& Objects.equals(userName, other.userName)
+					&& Objects.equals(userIdentity, other.userIdentity)
+					&& Objects.equals(database, other.database);
+		}
+	}
+
+	/**
+	 * Obtain decision from the cache or evaluate it if it's absent
+	 * @param user user to check access for
+	 * @param resource resource to check access to
+	 * @param specific specific resource or null
+	 * @param operation required operation
+	 * @param evaluator evaluator of the decision
+	 * @return true if access is allowed
+	 */
+	public boolean isAllowed(OSecurityUser user, ResourceGeneric resource, String specific, int operation, BooleanSupplier evaluator) {
+		if(user==null) return evaluator.getAsBoolean();
+		ODatabaseDocument db = ODatabaseRecordThreadLocal.instance().getIfDefined();
+		OIdentifiable identity = user.getIdentity();
+		Key key = new Key(db!=null?db.getName():null, identity!=null?identity.getIdentity():null, user.getName(),
+							SECURITY_VERSION.get(), resource, specific, operation);
+		RequestCycle cycle = RequestCycle.get();
+		HashMap<Key, Boolean> requestDecisions = cycle!=null?cycle.getMetaData(REQUEST_DECISIONS_KEY):null;
+		Boolean decision = requestDecisions!=null?requestDecisions.get(key):null;
+		if(decision==null && sharedEnabled) decision = sharedDecisions.getIfPresent(key);
+		if(decision!=null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			decision = evaluator.getAsBoolean();
+			if(sharedEnabled) sharedDecisions.put(key, decision);
+		}
+		if(cycle!=null) {
+			if(requestDecisions==null) {
+				requestDecisions = new HashMap<Key, Boolean>();
+				cycle.setMetaData(REQUEST_DECISIONS_KEY, requestDecisions);
+			}
+			requestDecisions.put(key, decision);
+		}
+		return decision;
+	}
+
+	/**
+	 * @return true if decisions are shared between requests
+	 */
+	public boolean isSharedEnabled() {
+		return sharedEnabled;
+	}
+
+	/**
+	 * Enable or disable sharing of decisions between requests
+	 * @param sharedEnabled true to share decisions between requests
+	 * @return this cache
+	 */
+	public OPermissionDecisionCache setSharedEnabled(boolean sharedEnabled) {
+		this.sharedEnabled = sharedEnabled;
+		if(!sharedEnabled) sharedDecisions.invalidateAll();
+		return this;
+	}
+
+	/**
+	 * @return number of decisions obtained from the cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of evaluated decisions
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Invalidate all decisions in all caches: increase version of security
+	 */
+	public static void invalidateAll() {
+		SECURITY_VERSION.incrementAndGet();
+	}
+
+	/**
+	 * @return current version of security
+	 */
+	public static long getSecurityVersion() {
+		return SECURITY_VERSION.get();
+	}
+
+	/**
+	 * @return {@link OPermissionDecisionCache} of current application or shared one if there is no application
+	 */
+	public static OPermissionDecisionCache get() {
+		OrientDbWebApplication app = OrientDbWebApplication.lookupApplication();
+		return app!=null?app.getOPermissionDecisionCache():SHARED;
+	}
+}
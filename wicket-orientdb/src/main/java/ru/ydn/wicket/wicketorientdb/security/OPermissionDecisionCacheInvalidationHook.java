@@ -0,0 +1,38 @@
+package ru.ydn.wicket.wicketorientdb.security;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
+import com.orientechnologies.orient.core.metadata.security.ORole;
+import com.orientechnologies.orient.core.metadata.security.OUser;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Hook which invalidates decisions cached in {@link OPermissionDecisionCache} upon any change of users, roles and policies
+ */
+public class OPermissionDecisionCacheInvalidationHook extends ODocumentHookAbstract {
+
+	public OPermissionDecisionCacheInvalidationHook(ODatabaseDocument database) {
+		super(database);
+		setIncludeClasses(OUser.CLASS_NAME, ORole.CLASS_NAME, "OSecurityPolicy");
+	}
+
+	@Override
+	public void onRecordAfterCreate(ODocument iDocument) {
+		OPermissionDecisionCache.invalidateAll();
+	}
+
+	@Override
+	public void onRecordAfterUpdate(ODocument iDocument) {
+		OPermissionDecisionCache.invalidateAll();
+	}
+
+	@Override
+	public void onRecordAfterDelete(ODocument iDocument) {
+		OPermissionDecisionCache.invalidateAll();
+	}
+
+	@Override
+	public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
+		return DISTRIBUTED_EXECUTION_MODE.BOTH;
+	}
+}
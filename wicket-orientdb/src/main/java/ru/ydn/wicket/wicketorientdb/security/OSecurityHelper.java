@@ -171,7 +171,7 @@ public class OSecurityHelper
 	{
 		if(!isAllowed(doc.getSchemaClass(), permissions)) return false;
 		for (OrientPermission orientPermission : permissions) {
-			ORestrictedOperation allowOperation = MAPPING_FOR_HACK.get(orientPermission);
+			ORestrictedOperation allowOperation = getRestrictedOperation(orientPermission);
 			if(allowOperation != null) {
 				if (!ORestrictedAccessHook.isAllowed(ODatabaseRecordThreadLocal.instance().get(), doc, allowOperation, false)) {
 					return false;
@@ -180,6 +180,15 @@ public class OSecurityHelper
 		}
 		return true;
 	}
+	/**
+	 * @param permission {@link OrientPermission} to map
+	 * @return {@link ORestrictedOperation} to be checked for the {@link OrientPermission} or null
+	 */
+	public static ORestrictedOperation getRestrictedOperation(OrientPermission permission)
+	{
+		return MAPPING_FOR_HACK.get(permission);
+	}
+	
 	/**
 	 * Check that all required permissions present for specified {@link OClass}
 	 * @param oClass {@link OClass} to check security rights for
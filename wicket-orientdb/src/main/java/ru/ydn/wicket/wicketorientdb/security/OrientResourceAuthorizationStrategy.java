@@ -22,6 +22,17 @@ public class OrientResourceAuthorizationStrategy  implements IAuthorizationStrat
 {
 	
 	private IResourceCheckingStrategy resourceCheckingStrategy;
+	
+	//Static requirements are checked directly by resourceCheckingStrategy, unless checking of a resource was customized
+	private final boolean checkResourceOverridden = isCheckResourceOverridden(getClass());
+	
+	private final ClassValue<OrientResourceRequirement[]> requirements = new ClassValue<OrientResourceRequirement[]>() {
+		@Override
+		protected OrientResourceRequirement[] computeValue(Class<?> type) {
+			RequiredOrientResource[] resources = getRequiredOrientResources(type);
+			return resources!=null?OrientResourceRequirement.of(resources):new OrientResourceRequirement[0];
+		}
+	};
 
 	public OrientResourceAuthorizationStrategy(IResourceCheckingStrategy resourceCheckingStrategy) {
 		this.resourceCheckingStrategy = resourceCheckingStrategy;
@@ -32,8 +43,7 @@ public class OrientResourceAuthorizationStrategy  implements IAuthorizationStrat
 			Class<T> componentClass) {
 		if(Page.class.isAssignableFrom(componentClass))
 		{
-			RequiredOrientResource[] resources = getRequiredOrientResources(componentClass);
-			return resources!=null?checkResources(resources, Component.RENDER):true;
+			return checkRequirements(getRequirements(componentClass), Component.RENDER);
 		}
 		else
 		{
@@ -43,11 +53,7 @@ public class OrientResourceAuthorizationStrategy  implements IAuthorizationStrat
 
 	@Override
 	public boolean isActionAuthorized(Component component, Action action) {
-		RequiredOrientResource[] resources = getRequiredOrientResources(component.getClass());
-		if(resources!=null)
-		{
-			if(!checkResources(resources, action)) return false;
-		}
+		if(!checkRequirements(getRequirements(component.getClass()), action)) return false;
 		Map<String, OrientPermission[]> dynamicResources = component.getMetaData(OrientPermission.REQUIRED_ORIENT_RESOURCES_KEY);
 		if(dynamicResources!=null)
 		{
@@ -55,7 +61,7 @@ public class OrientResourceAuthorizationStrategy  implements IAuthorizationStrat
 		}
 		if(component instanceof ISecuredComponent)
 		{
-			resources = ((ISecuredComponent)component).getRequiredResources();
+			RequiredOrientResource[] resources = ((ISecuredComponent)component).getRequiredResources();
 			if(resources!=null)
 			{
 				if(!checkResources(resources, action)) return false;
@@ -117,18 +123,56 @@ public class OrientResourceAuthorizationStrategy  implements IAuthorizationStrat
 	 */
 	public boolean checkResource(String resource, Action action, OrientPermission[] permissions)
 	{
-		String actionName = action.getName();
-		int actionIndx = resource.indexOf(':');
-		if(actionIndx>0) {
-			if(!(resource.endsWith(actionName) && resource.length()>actionName.length() 
-					&& resource.charAt(resource.length()-actionName.length()-1) == ':')) return true;
-			else resource = resource.substring(0, actionIndx);//Should cut off action
-		} else if(!Component.RENDER.equals(action)) return true; //Default suffix is for render: so other should be skipped
-		
-		return resourceCheckingStrategy.checkResource(OSecurityHelper.getResourceGeneric(resource),
-											  OSecurityHelper.getResourceSpecific(resource),
-											  permissions);
+		//Default action is render: so other should be skipped
+		OrientResourceRequirement requirement = OrientResourceRequirement.parse(resource);
+		if(!requirement.isApplicableFor(action)) return true;
+		return resourceCheckingStrategy.checkResource(requirement.getResource(),
+											  requirement.getSpecific(),
+											  OrientPermission.combinedPermission(permissions));
 	}
+	
+	/**
+	 * Check that current user has access to all required resources.
+	 * Requirements created from {@link RequiredOrientResource} are checked by {@link #checkResource(RequiredOrientResource, Action)}
+	 * if it's overridden
+	 * @param requirements parsed required resources to check
+	 * @param action {@link Action} to check for
+	 * @return true if access is allowed
+	 */
+	public boolean checkRequirements(OrientResourceRequirement[] requirements, Action action)
+	{
+		for (int i = 0; i < requirements.length; i++) {
+			OrientResourceRequirement requirement = requirements[i];
+			if(!requirement.isApplicableFor(action)) continue;
+			if(checkResourceOverridden && requirement.getSource()!=null) {
+				if(!checkResource(requirement.getSource(), action)) return false;
+			} else if(!resourceCheckingStrategy.checkResource(requirement.getResource(), 
+															requirement.getSpecific(), 
+															requirement.getPermission())) return false;
+		}
+		return true;
+	}
+	
+	private static boolean isCheckResourceOverridden(Class<?> clazz)
+	{
+		try {
+			return !OrientResourceAuthorizationStrategy.class.equals(
+					clazz.getMethod("checkResource", RequiredOrientResource.class, Action.class).getDeclaringClass());
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Obtain parsed {@link RequiredOrientResource}s of a class. Parsed resources are computed just once per class
+	 * @param clazz Class to obtain requirements for
+	 * @return parsed statically defined {@link RequiredOrientResource}s
+	 */
+	public OrientResourceRequirement[] getRequirements(Class<?> clazz)
+	{
+		return requirements.get(clazz);
+	}
+	
 	/**
 	 * Extract {@link RequiredOrientResource}s from a Class
 	 * @param clazz Class to extract {@link RequiredOrientResource}s from
@@ -143,14 +187,10 @@ public class OrientResourceAuthorizationStrategy  implements IAuthorizationStrat
 	@Override
 	public boolean isResourceAuthorized(IResource resource,
 			PageParameters parameters) {
-		RequiredOrientResource[] resources = getRequiredOrientResources(resource.getClass());
-		if(resources!=null)
-		{
-			if(!checkResources(resources, Component.RENDER)) return false;
-		}
+		if(!checkRequirements(getRequirements(resource.getClass()), Component.RENDER)) return false;
 		if(resource instanceof ISecuredComponent)
 		{
-			resources = ((ISecuredComponent)resource).getRequiredResources();
+			RequiredOrientResource[] resources = ((ISecuredComponent)resource).getRequiredResources();
 			if(resources!=null)
 			{
 				if(!checkResources(resources, Component.RENDER)) return false;
@@ -0,0 +1,121 @@
+package ru.ydn.wicket.wicketorientdb.security;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.authorization.Action;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.orientechnologies.orient.core.metadata.security.ORule;
+
+/**
+ * Parsed form of a required OrientDB resource: either of {@link RequiredOrientResource} or of a key
+ * of a map assigned to {@link OrientPermission#REQUIRED_ORIENT_RESOURCES_KEY} in form "RESOURCE.specific:action".
+ * Parsed keys are cached, so checks of the same resources don't require parsing again
+ */
+public final class OrientResourceRequirement {
+
+	private static final int MAX_CACHE_SIZE = 10000;
+	private static final Cache<String, OrientResourceRequirement> PARSED = CacheBuilder.newBuilder().maximumSize(MAX_CACHE_SIZE).build();
+
+	private final ORule.ResourceGeneric resource;
+	private final String specific;
+	private final String action;
+	private final int permission;
+	private final RequiredOrientResource source;
+
+	private OrientResourceRequirement(ORule.ResourceGeneric resource, String specific, String action, int permission,
+										RequiredOrientResource source) {
+		this.resource = resource;
+		this.specific = specific;
+		this.action = action;
+		this.permission = permission;
+		this.source = source;
+	}
+
+	/**
+	 * @return required {@link ORule.ResourceGeneric}
+	 */
+	public ORule.ResourceGeneric getResource() {
+		return resource;
+	}
+
+	/**
+	 * @return required specific resource
+	 */
+	public String getSpecific() {
+		return specific;
+	}
+
+	/**
+	 * @return name of an action this requirement is applicable for
+	 */
+	public String getAction() {
+		return action;
+	}
+
+	/**
+	 * @return combined required permission. It's 0 for parsed keys: permissions are values of a map
+	 */
+	public int getPermission() {
+		return permission;
+	}
+
+	/**
+	 * @return {@link RequiredOrientResource} this requirement was created from or null for parsed keys
+	 */
+	public RequiredOrientResource getSource() {
+		return source;
+	}
+
+	/**
+	 * @param action {@link Action} to check
+	 * @return true if requirement should be checked for the {@link Action}
+	 */
+	public boolean isApplicableFor(Action action) {
+		return this.action.equals(action.getName());
+	}
+
+	/**
+	 * @param resource {@link RequiredOrientResource} to convert
+	 * @return parsed {@link RequiredOrientResource}
+	 */
+	public static OrientResourceRequirement of(RequiredOrientResource resource) {
+		return new OrientResourceRequirement(OSecurityHelper.getResourceGeneric(resource.value()),
+											resource.specific(), resource.action(),
+											OrientPermission.combinedPermission(resource.permissions()), resource);
+	}
+
+	/**
+	 * @param resources {@link RequiredOrientResource}s to convert
+	 * @return parsed {@link RequiredOrientResource}s
+	 */
+	public static OrientResourceRequirement[] of(RequiredOrientResource[] resources) {
+		OrientResourceRequirement[] ret = new OrientResourceRequirement[resources.length];
+		for (int i = 0; i < resources.length; i++) {
+			ret[i] = of(resources[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 * Parse resource in form "RESOURCE.specific:action". Resource without action is applicable for {@link Component#RENDER}
+	 * @param resource resource to parse
+	 * @return parsed resource
+	 */
+	public static OrientResourceRequirement parse(String resource) {
+		OrientResourceRequirement ret = PARSED.getIfPresent(resource);
+		if(ret==null) {
+			String action = Component.RENDER.getName();
+			String name = resource;
+			int actionIndx = resource.indexOf(':');
+			if(actionIndx>0) {
+				action = resource.substring(resource.lastIndexOf(':')+1);
+				name = resource.substring(0, actionIndx);
+			}
+			ret = new OrientResourceRequirement(OSecurityHelper.getResourceGeneric(name),
+												OSecurityHelper.getResourceSpecific(name), action, 0, null);
+			PARSED.put(resource, ret);
+		}
+		return ret;
+	}
+}
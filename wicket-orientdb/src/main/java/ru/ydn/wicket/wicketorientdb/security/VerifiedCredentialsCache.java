@@ -0,0 +1,102 @@
+package ru.ydn.wicket.wicketorientdb.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.WicketRuntimeException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import ru.ydn.wicket.wicketorientdb.OUserCatchPasswordHook;
+import ru.ydn.wicket.wicketorientdb.OrientDbWebApplication;
+
+/**
+ * Bounded cache of recently verified credentials: allows to skip expensive verification of a password for every request of stateless clients.
+ * Passwords are not stored: only salted digests of them. Entries expire after TTL and are invalidated by {@link OUserCatchPasswordHook} upon change of a user.
+ * Cache is local for a node: in distributed setup changes made on other nodes are not propagated, so old password stays valid here till TTL expiration.
+ * Use shorter TTL for such setups.
+ */
+public class VerifiedCredentialsCache {
+	
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	public static final long DEFAULT_TTL_SECONDS = 60;
+	
+	private static final VerifiedCredentialsCache SHARED = new VerifiedCredentialsCache();
+	
+	private final Cache<String, byte[]> verified;
+	private final byte[] salt = new byte[16];
+	
+	public VerifiedCredentialsCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * @param maxSize maximal number of cached credentials
+	 * @param ttl time to live of verified credentials
+	 * @param unit {@link TimeUnit} of ttl
+	 */
+	public VerifiedCredentialsCache(long maxSize, long ttl, TimeUnit unit) {
+		verified = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, unit).build();
+		new SecureRandom().nextBytes(salt);
+	}
+	
+	/**
+	 * @param username name of a user
+	 * @param password password of a user
+	 * @return true if same credentials were verified recently
+	 */
+	public boolean isVerified(String username, String password) {
+		if(username==null || password==null) return false;
+		byte[] digest = verified.getIfPresent(username);
+		return digest!=null && MessageDigest.isEqual(digest, digest(username, password));
+	}
+	
+	/**
+	 * Remember successfully verified credentials
+	 * @param username name of a user
+	 * @param password password of a user
+	 */
+	public void verified(String username, String password) {
+		if(username==null || password==null) return;
+		verified.put(username, digest(username, password));
+	}
+	
+	/**
+	 * Forget verified credentials of a user
+	 * @param username name of a user
+	 */
+	public void invalidate(String username) {
+		if(username!=null) verified.invalidate(username);
+	}
+	
+	/**
+	 * Forget all verified credentials
+	 */
+	public void invalidateAll() {
+		verified.invalidateAll();
+	}
+	
+	private byte[] digest(String username, String password) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(salt);
+			md.update(username.getBytes(StandardCharsets.UTF_8));
+			md.update((byte)0);
+			return md.digest(password.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new WicketRuntimeException("SHA-256 is not supported", e);
+		}
+	}
+	
+	/**
+	 * @return {@link VerifiedCredentialsCache} of current application or shared one if there is no application
+	 */
+	public static VerifiedCredentialsCache get() {
+		OrientDbWebApplication app = OrientDbWebApplication.lookupApplication();
+		return app!=null?app.getVerifiedCredentialsCache():SHARED;
+	}
+}
@@ -3,6 +3,7 @@ package ru.ydn.wicket.wicketorientdb.service;
 import com.orientechnologies.orient.core.db.ODatabaseInternal;
 import com.orientechnologies.orient.core.db.ODatabaseLifecycleListener;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import ru.ydn.wicket.wicketorientdb.IOrientDbSettings;
 import ru.ydn.wicket.wicketorientdb.OrientDbWebApplication;
 import ru.ydn.wicket.wicketorientdb.utils.ODbUtils;
 
@@ -20,13 +21,15 @@ public class ODatabaseHooksInstallListener implements ODatabaseLifecycleListener
     @SuppressWarnings("rawtypes")
 	@Override
     public void onOpen(ODatabaseInternal iDatabase) {
-        ODbUtils.registerHooks(iDatabase, app.getOrientDbSettings().getORecordHooks());
+        IOrientDbSettings settings = app.getOrientDbSettings();
+        ODbUtils.registerHooks(iDatabase, settings.getORecordHooks(), settings.getORecordHooksVersion());
     }
 
     @SuppressWarnings("rawtypes")
 	@Override
     public void onCreate(ODatabaseInternal iDatabase) {
-        ODbUtils.registerHooks(iDatabase, app.getOrientDbSettings().getORecordHooks());
+        IOrientDbSettings settings = app.getOrientDbSettings();
+        ODbUtils.registerHooks(iDatabase, settings.getORecordHooks(), settings.getORecordHooksVersion());
         //Fix for "feature" appeared in OrientDB 2.1.1
         //Issue: https://github.com/orientechnologies/orientdb/issues/4906
         ODbUtils.fixOrientDBRights(iDatabase);
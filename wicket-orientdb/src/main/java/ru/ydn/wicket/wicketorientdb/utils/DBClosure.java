@@ -4,22 +4,86 @@ import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.ODatabaseSession;
 import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.type.ODocumentWrapper;
+import org.apache.wicket.Application;
+import org.apache.wicket.Session;
+import org.apache.wicket.ThreadContext;
+import org.apache.wicket.util.lang.Args;
 import ru.ydn.wicket.wicketorientdb.IOrientDbSettings;
 import ru.ydn.wicket.wicketorientdb.OrientDbWebApplication;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
- * Closure for execution of portion queries/command on database for different user (commonly, under admin)
+ * Closure for execution of portion queries/command on database for different user (commonly, under admin).
+ * Closures executed within {@link SudoScope} reuse single database session instead of acquiring new one for every closure.
  * @param <V> return type
  */
 public abstract class DBClosure<V> implements Serializable {
 
 	private static final long serialVersionUID = 1L;
+	
+	private static final ThreadLocal<SudoScope> CURRENT_SCOPE = new ThreadLocal<SudoScope>();
+	
+	/**
+	 * Reentrant scope which holds a database session for closures of the same database and user on current thread.
+	 * Nested closures share the session and, so, its transaction. Session is closed upon close of the outermost scope.
+	 * Transaction which was left open by a closure failed with an exception is rolled back
+	 */
+	public static final class SudoScope implements AutoCloseable {
+		private final String dbName;
+		private final String username;
+		private final String password;
+		private int depth = 1;
+		private ODatabaseSession db;
+		
+		private SudoScope(String dbName, String username, String password) {
+			this.dbName = dbName;
+			this.username = username;
+			this.password = password;
+		}
+		
+		private boolean isFor(String dbName, String username, String password) {
+			return Objects.equals(this.dbName, dbName) 
+					&& Objects.equals(this.username, username) 
+					&& Objects.equals(this.password, password);
+		}
+		
+		private ODatabaseSession getDatabase(DBClosure<?> closure) {
+			if(db==null || db.isClosed()) db = closure.openNewODatabaseSession();
+			return db;
+		}
+		
+		@Override
+		public void close() {
+			if(--depth>0) return;
+			CURRENT_SCOPE.remove();
+			if(db!=null && !db.isClosed()) {
+				ODatabaseRecordThreadLocal orientDbThreadLocal = ODatabaseRecordThreadLocal.instance();
+				ODatabaseDocumentInternal currentDb = orientDbThreadLocal.getIfDefined();
+				db.activateOnCurrentThread();
+				db.close();
+				if (currentDb != null && currentDb != db) {
+					orientDbThreadLocal.set(currentDb);
+				} else {
+					orientDbThreadLocal.remove();
+				}
+			}
+			db = null;
+		}
+	}
 
 	private final String dbName;
 	private final String username;
@@ -51,13 +115,26 @@ public abstract class DBClosure<V> implements Serializable {
 		if (oldDb != null) {
 			orientDbThreadLocal.remove(); //Required to avoid stack of transactions
 		}
+		SudoScope scope = CURRENT_SCOPE.get();
+		boolean inScope = scope!=null && scope.isFor(getDbName(), getUsername(), getPassword());
+		int txLevel = 0;
 		try {
-			db = openNewODatabaseSession();
+			db = inScope?scope.getDatabase(this):openNewODatabaseSession();
 			db.activateOnCurrentThread();
+			if (inScope) txLevel = db.getTransaction().amountOfNestedTxs();
 			return execute(db);
-		} 
+		}
+		catch (RuntimeException e) {
+			//Session of a scope is shared: transaction left by failed closure should not swallow work of next closures.
+			//OrientDB can't rollback just nested transaction, so transaction of the scope fails entirely
+			if (inScope && db != null && !db.isClosed() && db.getTransaction().amountOfNestedTxs() > txLevel) {
+				db.activateOnCurrentThread();
+				db.rollback(true);
+			}
+			throw e;
+		}
 		finally {
-			if (db != null) {
+			if (db != null && !inScope) {
 				db.close();
 			}
 			if (oldDb != null) {
@@ -68,8 +145,40 @@ public abstract class DBClosure<V> implements Serializable {
 		}
 	}
 	
+	/**
+	 * Execute closure asynchronously by {@link IOrientDbSettings#getClosureExecutor()}
+	 * @return {@link CompletableFuture} for result of execution
+	 * @throws RejectedExecutionException synchronously, if queue of the executor is full or executor was shut down
+	 */
+	public final CompletableFuture<V> executeAsync() {
+		return executeAsync(getSettings().getClosureExecutor());
+	}
+	
+	/**
+	 * Execute closure asynchronously by specified {@link Executor}.
+	 * Application and session of Wicket are propagated to the executing thread. 
+	 * Database of current thread is not shared: closure always uses its own database session
+	 * @param executor {@link Executor} to use
+	 * @return {@link CompletableFuture} for result of execution
+	 * @throws RejectedExecutionException synchronously, if {@link Executor} doesn't accept the closure
+	 */
+	public final CompletableFuture<V> executeAsync(Executor executor) {
+		final Application app = OrientDbWebApplication.lookupApplication();
+		final Session session = Session.exists()?Session.get():null;
+		return CompletableFuture.supplyAsync(() -> {
+			ThreadContext previous = ThreadContext.detach();
+			try {
+				ThreadContext.setApplication(app);
+				ThreadContext.setSession(session);
+				return execute();
+			} finally {
+				ThreadContext.restore(previous);
+			}
+		}, executor);
+	}
+	
 	protected ODatabaseSession openNewODatabaseSession() {
-		return getSettings().getContext().cachedPool(getDbName(), getUsername(), getPassword()).acquire();
+		return getSettings().acquireDatabaseSession(getDbName(), getUsername(), getPassword());
 	}
 	
 	protected String getDbName() {
@@ -97,6 +206,57 @@ public abstract class DBClosure<V> implements Serializable {
 	 */
 	protected abstract V execute(ODatabaseSession db);
 	
+	/**
+	 * Open reentrant {@link SudoScope} for closures under admin on current thread. 
+	 * Scope should be closed in the same thread: use try-with-resources
+	 * @return opened {@link SudoScope}
+	 */
+	public static SudoScope openSudoScope() {
+		IOrientDbSettings settings = OrientDbWebApplication.lookupApplication().getOrientDbSettings();
+		return openScope(settings.getDbName(), settings.getAdminUserName(), settings.getAdminPassword());
+	}
+	
+	private static SudoScope openScope(String dbName, String username, String password) {
+		SudoScope scope = CURRENT_SCOPE.get();
+		if(scope!=null) {
+			if(!scope.isFor(dbName, username, password)) 
+				throw new IllegalStateException("Scope for other database or user is already opened");
+			scope.depth++;
+		} else {
+			scope = new SudoScope(dbName, username, password);
+			CURRENT_SCOPE.set(scope);
+		}
+		return scope;
+	}
+	
+	/**
+	 * Execute supplier within {@link SudoScope}: all closures under admin inside will reuse single database session
+	 * @param supplier supplier to execute
+	 * @param <R> type of returned value
+	 * @return result of a supplier
+	 */
+	public static <R> R sudoScope(Supplier<R> supplier) {
+		try(SudoScope scope = openSudoScope()) {
+			return supplier.get();
+		}
+	}
+	
+	/**
+	 * Execute set of functions under admin in single database session
+	 * @param funcs functions to be executed
+	 * @param <R> type of returned values
+	 * @return results of functions in the same order
+	 */
+	public static <R> List<R> sudoBatch(Iterable<? extends Function<ODatabaseSession, R>> funcs) {
+		return sudoScope(() -> {
+			List<R> ret = new ArrayList<R>();
+			for (Function<ODatabaseSession, R> func : funcs) {
+				ret.add(sudo(func));
+			}
+			return ret;
+		});
+	}
+	
 	/**
 	 * Simplified function to execute under admin
 	 * @param func function to be executed
@@ -114,6 +274,24 @@ public abstract class DBClosure<V> implements Serializable {
 		}.execute();
 	}
 
+	/**
+	 * Simplified function to execute under admin asynchronously
+	 * @param func function to be executed
+	 * @param <R> type of returned value
+	 * @return {@link CompletableFuture} for result of a function
+	 * @throws RejectedExecutionException synchronously, if queue of the executor is full or executor was shut down
+	 */
+	public static <R> CompletableFuture<R> sudoAsync(Function<ODatabaseSession, R> func) {
+		return new DBClosure<R>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected R execute(ODatabaseSession db) {
+				return func.apply(db);
+			}
+		}.executeAsync();
+	}
+
 	/**
 	 * Simplified consumer to execute under admin
 	 * @param consumer - consumer to be executed
@@ -173,6 +351,98 @@ public abstract class DBClosure<V> implements Serializable {
 		}.execute();
 	}
 	
+	/**
+	 * Save documents under admin in transactions of limited size
+	 * @param docs documents to be saved
+	 * @param batchSize number of documents per transaction
+	 * @return {@link SaveAllStatistics} of saving
+	 */
+	public static SaveAllStatistics sudoSaveAll(Iterable<ODocument> docs, int batchSize) {
+		return sudoSaveAll(docs, batchSize, true, null);
+	}
+	
+	/**
+	 * Save documents under admin in transactions of limited size
+	 * @param docs stream of documents to be saved. Stream is closed after saving
+	 * @param batchSize number of documents per transaction
+	 * @return {@link SaveAllStatistics} of saving
+	 */
+	public static SaveAllStatistics sudoSaveAll(Stream<ODocument> docs, int batchSize) {
+		try(Stream<ODocument> stream = docs) {
+			return sudoSaveAll(stream::iterator, batchSize, true, null);
+		}
+	}
+	
+	/**
+	 * Save documents under admin by chunks. Failure of a chunk doesn't stop saving of next chunks:
+	 * failures are reported through {@link SaveAllStatistics}.
+	 * Saving can't be started within {@link SudoScope} with an active transaction: chunks would be nested into it
+	 * @param docs documents to be saved
+	 * @param batchSize number of documents per chunk
+	 * @param transactional true to commit every chunk in a transaction, 
+	 * 						false to save documents without transaction in massive insert mode
+	 * @param callback optional callback to be notified after every chunk
+	 * @return {@link SaveAllStatistics} of saving
+	 * @throws IllegalStateException if admin's session of current {@link SudoScope} has an active transaction
+	 */
+	public static SaveAllStatistics sudoSaveAll(final Iterable<ODocument> docs, final int batchSize, 
+												final boolean transactional, final Consumer<SaveAllStatistics> callback) {
+		Args.isTrue(batchSize>0, "batchSize should be positive");
+		final SaveAllStatistics statistics = new SaveAllStatistics();
+		sudoConsumer(db -> {
+			if(db.getTransaction().isActive()) {
+				throw new IllegalStateException("Documents can't be saved by chunks within active transaction of SudoScope");
+			}
+			if(!transactional) db.declareIntent(new OIntentMassiveInsert());
+			try {
+				List<ODocument> chunk = new ArrayList<ODocument>(batchSize);
+				for (ODocument doc : docs) {
+					chunk.add(doc);
+					if(chunk.size()>=batchSize) {
+						saveChunk(db, chunk, transactional, statistics, callback);
+						chunk.clear();
+					}
+				}
+				if(!chunk.isEmpty()) saveChunk(db, chunk, transactional, statistics, callback);
+			} finally {
+				if(!transactional) db.declareIntent(null);
+			}
+		});
+		statistics.finish();
+		return statistics;
+	}
+	
+	private static void saveChunk(ODatabaseSession db, List<ODocument> chunk, boolean transactional,
+									SaveAllStatistics statistics, Consumer<SaveAllStatistics> callback) {
+		if(transactional) {
+			try {
+				db.begin();
+				for (ODocument doc : chunk) {
+					db.save(doc);
+				}
+				db.commit();
+				statistics.chunkSaved(chunk.size());
+			} catch (RuntimeException e) {
+				if(db.getTransaction().isActive()) db.rollback();
+				statistics.chunkFailed(0, chunk.size(), e);
+			}
+		} else {
+			int failed = 0;
+			RuntimeException error = null;
+			for (ODocument doc : chunk) {
+				try {
+					db.save(doc);
+				} catch (RuntimeException e) {
+					failed++;
+					error = e;
+				}
+			}
+			if(failed==0) statistics.chunkSaved(chunk.size());
+			else statistics.chunkFailed(chunk.size()-failed, failed, error);
+		}
+		if(callback!=null) callback.accept(statistics);
+	}
+	
 	/**
 	 * Loads document under admin
 	 * @param id {@link ORID} of the object to load
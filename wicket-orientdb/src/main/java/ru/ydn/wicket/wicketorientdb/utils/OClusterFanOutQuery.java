@@ -0,0 +1,472 @@
+package ru.ydn.wicket.wicketorientdb.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.wicket.util.lang.Args;
+
+import com.orientechnologies.common.comparator.ODefaultComparator;
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+/**
+ * Query over a class which is split into sub-queries per cluster of the class ('select from cluster:X').
+ * Sub-queries are executed concurrently by {@link DBClosure}s in separate database sessions and fetch results by pages,
+ * so just a few pages per cluster are kept in memory. Pages are fetched by keyset: sorted sub-queries are ordered by fields and then by @rid,
+ * so next page starts right after the last document of the previous one. Results of sorted queries are merged with preserving of order.
+ * Clusters are queried lazily upon iteration: iterator which is not exhausted should be closed to cancel pending sub-queries.
+ * By default sub-queries are executed under admin.
+ */
+public class OClusterFanOutQuery implements Iterable<ODocument> {
+
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	/**
+	 * {@link Iterator} over results of {@link OClusterFanOutQuery} which cancels pending sub-queries upon close
+	 */
+	public static interface IFanOutIterator extends Iterator<ODocument>, AutoCloseable {
+		@Override
+		public void close();
+	}
+
+	private final String className;
+	private String condition;
+	private Object[] args = new Object[0];
+	private final List<String> orderFields = new ArrayList<String>();
+	private final List<Boolean> orderAscending = new ArrayList<Boolean>();
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	private String username;
+	private String password;
+	private Executor executor;
+
+	public OClusterFanOutQuery(String className) {
+		this.className = Args.notEmpty(className, "className");
+	}
+
+	/**
+	 * @param condition SQL condition for documents
+	 * @param args positional arguments of the condition
+	 * @return this query
+	 */
+	public OClusterFanOutQuery where(String condition, Object... args) {
+		this.condition = condition;
+		this.args = args!=null?args:new Object[0];
+		return this;
+	}
+
+	/**
+	 * Add sorting by a field
+	 * @param field name of a field
+	 * @param ascending true for ascending order
+	 * @return this query
+	 */
+	public OClusterFanOutQuery orderBy(String field, boolean ascending) {
+		orderFields.add(Args.notEmpty(field, "field"));
+		orderAscending.add(ascending);
+		return this;
+	}
+
+	/**
+	 * @param pageSize number of documents fetched by a sub-query at once
+	 * @return this query
+	 */
+	public OClusterFanOutQuery setPageSize(int pageSize) {
+		Args.isTrue(pageSize>0, "pageSize should be positive");
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	/**
+	 * Execute sub-queries under specified user instead of admin
+	 * @param username name of a user
+	 * @param password password of a user
+	 * @return this query
+	 */
+	public OClusterFanOutQuery as(String username, String password) {
+		this.username = username;
+		this.password = password;
+		return this;
+	}
+
+	/**
+	 * @param executor {@link Executor} for sub-queries. By default {@link DBClosure#executeAsync()} one is used
+	 * @return this query
+	 */
+	public OClusterFanOutQuery setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * @return names of all clusters of the class including clusters of subclasses
+	 */
+	public List<String> getClusterNames() {
+		return closure(db -> {
+			OClass oClass = db.getMetadata().getSchema().getClass(className);
+			if(oClass==null) return Collections.<String>emptyList();
+			int[] clusterIds = oClass.getPolymorphicClusterIds();
+			List<String> ret = new ArrayList<String>(clusterIds.length);
+			for (int clusterId : clusterIds) {
+				String clusterName = db.getClusterNameById(clusterId);
+				if(clusterName!=null) ret.add(clusterName);
+			}
+			return ret;
+		}).execute();
+	}
+
+	/**
+	 * Execute function for every cluster of the class concurrently
+	 * @param func function to execute for database and name of a cluster
+	 * @param <R> type of results
+	 * @return results in the order of {@link #getClusterNames()}
+	 */
+	public <R> List<R> fanOut(BiFunction<ODatabaseSession, String, R> func) {
+		List<CompletableFuture<R>> futures = new ArrayList<CompletableFuture<R>>();
+		for (String clusterName : getClusterNames()) {
+			futures.add(executeAsync(closure(db -> func.apply(db, clusterName))));
+		}
+		List<R> ret = new ArrayList<R>(futures.size());
+		for (CompletableFuture<R> future : futures) {
+			ret.add(join(future));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return number of documents which satisfy the condition
+	 */
+	public long count() {
+		long ret = 0;
+		for (Long count : fanOut((db, clusterName) -> {
+			StringBuilder sql = new StringBuilder("select count(*) as count from cluster:").append(clusterName);
+			if(condition!=null) sql.append(" where ").append(condition);
+			try(OResultSet rs = db.query(sql.toString(), args)) {
+				return rs.hasNext()?((Number)rs.next().getProperty("count")).longValue():0L;
+			}
+		})) {
+			ret+=count;
+		}
+		return ret;
+	}
+
+	@Override
+	public IFanOutIterator iterator() {
+		return orderFields.isEmpty()?new SequentialIterator():new MergingIterator();
+	}
+
+	/**
+	 * @return {@link Stream} of documents. Stream should be closed if it's not consumed completely
+	 */
+	public Stream<ODocument> stream() {
+		IFanOutIterator iterator = iterator();
+		int characteristics = Spliterator.NONNULL | (orderFields.isEmpty()?0:Spliterator.ORDERED);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, characteristics), false).onClose(iterator::close);
+	}
+
+	/**
+	 * @return {@link Comparator} corresponding to required order: documents with equal values are ordered by @rid as in sub-queries
+	 */
+	public Comparator<ODocument> getComparator() {
+		return (d1, d2) -> {
+			for (int i = 0; i < orderFields.size(); i++) {
+				int ret = compareValues(d1.field(orderFields.get(i)), d2.field(orderFields.get(i)));
+				if(ret!=0) return orderAscending.get(i)?ret:-ret;
+			}
+			return d1.getIdentity().compareTo(d2.getIdentity());
+		};
+	}
+
+	/**
+	 * Null values are the lowest ones as in ordering of OrientDB. Values of different types are converted by {@link OType}
+	 * and then compared by {@link ODefaultComparator}: incomparable values are considered equal as in ORDER BY of OrientDB
+	 */
+	private static int compareValues(Object v1, Object v2) {
+		if(v1==v2) return 0;
+		else if(v1==null) return -1;
+		else if(v2==null) return 1;
+		try {
+			if(v1 instanceof Number && v2 instanceof Number) {
+				Number[] numbers = OType.castComparableNumber((Number)v1, (Number)v2);
+				v1 = numbers[0];
+				v2 = numbers[1];
+			} else if(!v1.getClass().isInstance(v2)) {
+				Object converted = OType.convert(v2, v1.getClass());
+				if(converted!=null) v2 = converted;
+			}
+			return ODefaultComparator.INSTANCE.compare(v1, v2);
+		} catch (RuntimeException e) {
+			return 0;
+		}
+	}
+
+	private <R> DBClosure<R> closure(Function<ODatabaseSession, R> func) {
+		return new DBClosure<R>(username, password) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected R execute(ODatabaseSession db) {
+				return func.apply(db);
+			}
+		};
+	}
+
+	private <R> CompletableFuture<R> executeAsync(DBClosure<R> closure) {
+		return executor!=null?closure.executeAsync(executor):closure.executeAsync();
+	}
+
+	private static <R> R join(CompletableFuture<R> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Cursor over documents of a single cluster: next page is fetched asynchronously while current one is consumed
+	 */
+	private class ClusterCursor {
+		private final String clusterName;
+		private ORID lastRid;
+		private Object[] lastValues;
+		private CompletableFuture<List<ODocument>> nextPage;
+		private Iterator<ODocument> currentPage = Collections.emptyIterator();
+		private ODocument head;
+		private boolean started;
+		private boolean closed;
+
+		public ClusterCursor(String clusterName) {
+			this.clusterName = clusterName;
+		}
+
+		/**
+		 * Start fetching of the first page if it was not started yet
+		 */
+		public void start() {
+			if(started || closed) return;
+			started = true;
+			nextPage = fetch();
+		}
+
+		/**
+		 * Cancel fetching of the next page and release fetched documents
+		 */
+		public void close() {
+			closed = true;
+			if(nextPage!=null) nextPage.cancel(true);
+			nextPage = null;
+			currentPage = Collections.emptyIterator();
+			head = null;
+		}
+
+		private CompletableFuture<List<ODocument>> fetch() {
+			List<Object> queryArgs = new ArrayList<Object>();
+			List<String> conditions = new ArrayList<String>();
+			StringBuilder sql = new StringBuilder("select from cluster:").append(clusterName);
+			if(lastRid!=null) conditions.add(seekCondition(queryArgs));
+			if(condition!=null) {
+				conditions.add("("+condition+")");
+				queryArgs.addAll(Arrays.asList(args));
+			}
+			if(!conditions.isEmpty()) sql.append(" where ").append(String.join(" and ", conditions));
+			sql.append(" order by ");
+			for (int i = 0; i < orderFields.size(); i++) {
+				sql.append(orderFields.get(i)).append(orderAscending.get(i)?" asc":" desc").append(", ");
+			}
+			sql.append("@rid asc");
+			sql.append(" limit ").append(pageSize);
+			String query = sql.toString();
+			Object[] params = queryArgs.toArray();
+			return executeAsync(closure(db -> {
+				List<ODocument> ret = new ArrayList<ODocument>();
+				try(OResultSet rs = db.query(query, params)) {
+					while(rs.hasNext()) {
+						OResult result = rs.next();
+						if(!result.isElement()) continue;
+						ODocument doc = (ODocument) result.toElement();
+						//Fields should be available without database of this session
+						doc.deserializeFields();
+						ret.add(doc);
+					}
+				}
+				return ret;
+			}));
+		}
+
+		/**
+		 * Condition for documents after the last fetched one: '(f1 after v1) OR (f1 = v1 AND f2 after v2) ... OR (... AND @rid > r)'.
+		 * Null values are the lowest ones as in ordering of OrientDB
+		 */
+		private String seekCondition(List<Object> queryArgs) {
+			StringBuilder ret = new StringBuilder("(");
+			StringBuilder equal = new StringBuilder();
+			List<Object> equalArgs = new ArrayList<Object>();
+			for (int i = 0; i < orderFields.size(); i++) {
+				String field = orderFields.get(i);
+				Object value = lastValues[i];
+				String after;
+				if(value==null) after = orderAscending.get(i)?field+" is not null":null;
+				else after = orderAscending.get(i)?field+" > ?":"("+field+" < ? or "+field+" is null)";
+				if(after!=null) {
+					ret.append(equal).append(after).append(" or ");
+					queryArgs.addAll(equalArgs);
+					if(value!=null) queryArgs.add(value);
+				}
+				equal.append(value==null?field+" is null":field+" = ?").append(" and ");
+				if(value!=null) equalArgs.add(value);
+			}
+			ret.append(equal).append("@rid > ?)");
+			queryArgs.addAll(equalArgs);
+			queryArgs.add(lastRid);
+			return ret.toString();
+		}
+
+		/**
+		 * Move to next document
+		 * @return true if there is next document
+		 */
+		public boolean advance() {
+			start();
+			while(!currentPage.hasNext()) {
+				if(nextPage==null) {
+					head = null;
+					return false;
+				}
+				List<ODocument> page = join(nextPage);
+				if(!page.isEmpty()) {
+					ODocument last = page.get(page.size()-1);
+					lastRid = last.getIdentity();
+					lastValues = new Object[orderFields.size()];
+					for (int i = 0; i < lastValues.length; i++) {
+						Object value = last.field(orderFields.get(i));
+						lastValues[i] = value instanceof OIdentifiable?((OIdentifiable)value).getIdentity():value;
+					}
+				}
+				nextPage = page.size()<pageSize?null:fetch();
+				currentPage = page.iterator();
+			}
+			head = currentPage.next();
+			return true;
+		}
+	}
+
+	/**
+	 * Base iterator which creates cursors upon first access and closes all of them
+	 */
+	private abstract class AbstractFanOutIterator implements IFanOutIterator {
+		private List<ClusterCursor> cursors;
+
+		protected List<ClusterCursor> getCursors() {
+			if(cursors==null) {
+				cursors = new ArrayList<ClusterCursor>();
+				for (String clusterName : getClusterNames()) {
+					cursors.add(new ClusterCursor(clusterName));
+				}
+			}
+			return cursors;
+		}
+
+		@Override
+		public void close() {
+			if(cursors!=null) cursors.forEach(ClusterCursor::close);
+		}
+	}
+
+	/**
+	 * Iterator over clusters one by one: first page of the following cluster is fetched while current cluster is consumed
+	 */
+	private class SequentialIterator extends AbstractFanOutIterator {
+		private int index = -1;
+		private ClusterCursor current;
+		private boolean ready;
+
+		@Override
+		public boolean hasNext() {
+			if(ready) return true;
+			List<ClusterCursor> cursors = getCursors();
+			while(current==null || !current.advance()) {
+				if(index+1>=cursors.size()) {
+					close();
+					return false;
+				}
+				current = cursors.get(++index);
+				if(index+1<cursors.size()) cursors.get(index+1).start();
+			}
+			ready = true;
+			return true;
+		}
+
+		@Override
+		public ODocument next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			ready = false;
+			return current.head;
+		}
+	}
+
+	/**
+	 * K-way merge of sorted clusters: first pages of all clusters are required, so they are fetched concurrently upon first access
+	 */
+	private class MergingIterator extends AbstractFanOutIterator {
+		private PriorityQueue<ClusterCursor> queue;
+		private ClusterCursor toAdvance;
+
+		@Override
+		public boolean hasNext() {
+			if(queue==null) {
+				List<ClusterCursor> cursors = getCursors();
+				Comparator<ODocument> comparator = getComparator();
+				queue = new PriorityQueue<ClusterCursor>(Math.max(1, cursors.size()), (c1, c2) -> comparator.compare(c1.head, c2.head));
+				cursors.forEach(ClusterCursor::start);
+				for (ClusterCursor cursor : cursors) {
+					if(cursor.advance()) queue.add(cursor);
+				}
+			}
+			if(toAdvance!=null) {
+				if(toAdvance.advance()) queue.add(toAdvance);
+				toAdvance = null;
+			}
+			if(queue.isEmpty()) {
+				close();
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public ODocument next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			toAdvance = queue.poll();
+			return toAdvance.head;
+		}
+
+		@Override
+		public void close() {
+			super.close();
+			if(queue!=null) queue.clear();
+			toAdvance = null;
+		}
+	}
+}
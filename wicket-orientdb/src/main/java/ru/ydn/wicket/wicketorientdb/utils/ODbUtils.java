@@ -1,13 +1,23 @@
 package ru.ydn.wicket.wicketorientdb.utils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.orientechnologies.orient.core.db.ODatabase;
 import com.orientechnologies.orient.core.db.ODatabaseInternal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.hook.ORecordHook;
 import com.orientechnologies.orient.core.metadata.security.ORole;
 import com.orientechnologies.orient.core.metadata.security.OSecurity;
+import ru.ydn.wicket.wicketorientdb.IOrientDbSettings;
 import ru.ydn.wicket.wicketorientdb.components.IHookPosition;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -20,6 +30,35 @@ import static com.orientechnologies.orient.core.metadata.security.ORule.Resource
  */
 public final class ODbUtils {
 
+    private static final MethodType HOOK_CONSTRUCTOR_TYPE = MethodType.methodType(ORecordHook.class, ODatabaseDocument.class);
+
+    /**
+     * Resolved constructors of hooks: all of them have type (ODatabaseDocument)ORecordHook
+     */
+    private static final LoadingCache<Class<? extends ORecordHook>, MethodHandle> HOOK_CONSTRUCTORS =
+            CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(ODbUtils::resolveHookConstructor));
+
+    /**
+     * Hooks of pooled database instances right after registration
+     */
+    private static final Cache<ODatabaseInternal<?>, RegisteredHooks> REGISTERED_HOOKS = CacheBuilder.newBuilder().weakKeys().build();
+
+    private static final class RegisteredHooks {
+        private final List<Class<? extends ORecordHook>> candidates;
+        private final long version;
+        private final List<ORecordHook> hooks;
+
+        public RegisteredHooks(ODatabaseInternal<?> db, List<Class<? extends ORecordHook>> candidates, long version) {
+            this.candidates = candidates;
+            this.version = version;
+            this.hooks = new ArrayList<>(db.getHooks().keySet());
+        }
+
+        public boolean isActual(ODatabaseInternal<?> db, List<Class<? extends ORecordHook>> candidates, long version) {
+            return version >= 0 && this.candidates == candidates && this.version == version && db.getHooks().keySet().containsAll(hooks);
+        }
+    }
+
     private ODbUtils() {}
 
     /**
@@ -65,6 +104,20 @@ public final class ODbUtils {
         });
     }
 
+    /**
+     * Register hooks in database if they were not registered yet for specified version of the list of hooks.
+     * Pooled database instances are reused, so check of the version is enough in most of cases
+     * @param db database
+     * @param candidates list of hooks for register
+     * @param version version of the list of hooks or negative value if it's unknown: see {@link IOrientDbSettings#getORecordHooksVersion()}
+     */
+    public static void registerHooks(ODatabaseInternal<?> db, List<Class<? extends ORecordHook>> candidates, long version) {
+        RegisteredHooks registered = REGISTERED_HOOKS.getIfPresent(db);
+        if (registered != null && registered.isActual(db, candidates, version)) return;
+        registerHooks(db, candidates);
+        REGISTERED_HOOKS.put(db, new RegisteredHooks(db, candidates, version));
+    }
+
     /**
      * Unregister hooks from database
      * @param db database
@@ -95,12 +148,34 @@ public final class ODbUtils {
             return null;
         }
 
+        MethodHandle constructor;
+        try {
+            constructor = HOOK_CONSTRUCTORS.getUnchecked(clazz);
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        try {
+            return (ORecordHook) constructor.invokeExact((ODatabaseDocument) iDatabase);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't initialize hook "+clazz.getName(), e);
+        }
+    }
+
+    /**
+     * Resolve constructor of a hook: either with {@link ODatabaseDocument} argument or default one
+     * @param clazz class of a hook
+     * @return {@link MethodHandle} of type (ODatabaseDocument)ORecordHook
+     */
+    private static MethodHandle resolveHookConstructor(Class<? extends ORecordHook> clazz) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
         try {
-            return clazz.getConstructor(ODatabaseDocument.class).newInstance(iDatabase);
-        } catch (Exception e) {
+            return lookup.unreflectConstructor(clazz.getConstructor(ODatabaseDocument.class)).asType(HOOK_CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
             try {
-                return clazz.newInstance();
-            } catch (Exception e1) {
+                MethodHandle constructor = lookup.unreflectConstructor(clazz.getConstructor())
+                                                 .asType(MethodType.methodType(ORecordHook.class));
+                return MethodHandles.dropArguments(constructor, 0, ODatabaseDocument.class);
+            } catch (NoSuchMethodException | IllegalAccessException e1) {
                 throw new IllegalStateException("Can't initialize hook "+clazz.getName(), e);
             }
         }
@@ -0,0 +1,124 @@
+package ru.ydn.wicket.wicketorientdb.utils;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.Page;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.application.IComponentOnBeforeRenderListener;
+import org.apache.wicket.model.ChainingModel;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.IWrapModel;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.util.visit.IVisit;
+import org.apache.wicket.util.visit.IVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.orientechnologies.orient.core.id.ORID;
+
+import ru.ydn.wicket.wicketorientdb.model.DynamicPropertyValueModel;
+import ru.ydn.wicket.wicketorientdb.model.ODocumentIdentityMap;
+import ru.ydn.wicket.wicketorientdb.model.ODocumentModel;
+
+/**
+ * Prefetch documents of all detached {@link ODocumentModel}s of a page (or of components to be updated by ajax)
+ * before rendering: documents are loaded into {@link ODocumentIdentityMap} by few bulk queries instead of
+ * one query per model.
+ * Listener should be registered as post onBeforeRender listener, so repeaters are already populated:
+ * <code>getComponentPostOnBeforeRenderListeners().add(new ODocumentPrefetchListener())</code>
+ */
+public class ODocumentPrefetchListener implements IComponentOnBeforeRenderListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ODocumentPrefetchListener.class);
+
+	private static final int MAX_MODEL_DEPTH = 10;
+
+	//Component.getDefaultModel() initializes inherited models, so model is read as is
+	private static final Method GET_MODEL_IMPL_METHOD = getModelImplMethod();
+
+	@Override
+	public void onBeforeRender(Component component) {
+		if(component instanceof Page || isUpdatedByAjax(component)) prefetch(component);
+	}
+
+	private static boolean isUpdatedByAjax(Component component) {
+		RequestCycle cycle = component.getRequestCycle();
+		Optional<AjaxRequestTarget> target = cycle!=null?cycle.find(AjaxRequestTarget.class):Optional.empty();
+		return target.isPresent() && target.get().getComponents().contains(component);
+	}
+
+	/**
+	 * Prefetch documents of all detached {@link ODocumentModel}s of the component and its children
+	 * @param component root component to prefetch documents for
+	 */
+	public static void prefetch(Component component) {
+		ODocumentIdentityMap identityMap = ODocumentIdentityMap.enable();
+		if(identityMap==null) return;
+		identityMap.registerAll(collect(component));
+		identityMap.fetchPending();
+	}
+
+	/**
+	 * Collect {@link ORID}s of detached {@link ODocumentModel}s of the component and its children.
+	 * Models of components are not initialized
+	 * @param component root component
+	 * @return set of found {@link ORID}s
+	 */
+	public static Set<ORID> collect(Component component) {
+		final Set<ORID> rids = new LinkedHashSet<ORID>();
+		collect(getModel(component), rids, 0);
+		if(component instanceof MarkupContainer) {
+			((MarkupContainer)component).visitChildren(new IVisitor<Component, Void>() {
+				@Override
+				public void component(Component object, IVisit<Void> visit) {
+					collect(getModel(object), rids, 0);
+				}
+			});
+		}
+		return rids;
+	}
+
+	private static void collect(IModel<?> model, Set<ORID> rids, int depth) {
+		if(model==null || depth>MAX_MODEL_DEPTH) return;
+		if(model instanceof ODocumentModel) {
+			ODocumentModel documentModel = (ODocumentModel) model;
+			if(!documentModel.isAttached()) {
+				ORID rid = documentModel.getIdentity();
+				if(rid!=null && rid.isPersistent()) rids.add(rid);
+			}
+		} else if(model instanceof DynamicPropertyValueModel) {
+			collect(((DynamicPropertyValueModel<?>) model).getDocumentModel(), rids, depth+1);
+		}
+		if(model instanceof IWrapModel) {
+			collect(((IWrapModel<?>) model).getWrappedModel(), rids, depth+1);
+		}
+		if(model instanceof ChainingModel) {
+			collect(((ChainingModel<?>) model).getChainedModel(), rids, depth+1);
+		}
+	}
+
+	private static IModel<?> getModel(Component component) {
+		if(GET_MODEL_IMPL_METHOD==null) return null;
+		try {
+			return (IModel<?>) GET_MODEL_IMPL_METHOD.invoke(component);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static Method getModelImplMethod() {
+		try {
+			Method method = Component.class.getDeclaredMethod("getModelImpl");
+			method.setAccessible(true);
+			return method;
+		} catch (Exception e) {
+			LOG.warn("Models of components can't be read: prefetch of documents is disabled", e);
+			return null;
+		}
+	}
+}
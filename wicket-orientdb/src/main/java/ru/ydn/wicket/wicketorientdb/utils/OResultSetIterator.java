@@ -0,0 +1,155 @@
+package ru.ydn.wicket.wicketorientdb.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.IRequestCycleListener;
+import org.apache.wicket.request.cycle.RequestCycle;
+
+import com.google.common.base.Function;
+import com.orientechnologies.orient.core.record.OElement;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+/**
+ * Streaming {@link Iterator} over elements of {@link OResultSet}.
+ * Rows are fetched and transformed lazily. Result set is kept open till the iterator is exhausted.
+ * If iterator was not exhausted, result set is closed upon detach of current {@link RequestCycle}.
+ * @param <T> type of objects to return
+ */
+public class OResultSetIterator<T> implements Iterator<T>, AutoCloseable
+{
+	private static final MetaDataKey<OpenIterators> OPEN_ITERATORS_KEY = new MetaDataKey<OpenIterators>() {
+		private static final long serialVersionUID = 1L;
+	};
+	
+	private OResultSet resultSet;
+	private OpenIterators openIterators;
+	private final Function<OElement, T> transformer;
+	private OElement nextElement;
+	private OElement lastElement;
+	private long rowsRead;
+	
+	/**
+	 * @param resultSet {@link OResultSet} to iterate over
+	 * @param transformer transformer to use for results or null
+	 */
+	public OResultSetIterator(OResultSet resultSet, Function<OElement, T> transformer)
+	{
+		this.resultSet = resultSet;
+		this.transformer = transformer;
+		this.openIterators = OpenIterators.get(RequestCycle.get());
+		if(openIterators!=null) openIterators.add(this);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(nextElement!=null) return true;
+		if(resultSet==null) return false;
+		while(resultSet.hasNext())
+		{
+			OResult row = resultSet.next();
+			rowsRead++;
+			if(row.isElement())
+			{
+				nextElement = row.getElement().get();
+				return true;
+			}
+		}
+		close();
+		onExhausted(rowsRead, lastElement);
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T next() {
+		if(!hasNext()) throw new NoSuchElementException();
+		lastElement = nextElement;
+		nextElement = null;
+		return transformer!=null?transformer.apply(lastElement):(T)lastElement;
+	}
+	
+	/**
+	 * Invoked when all rows were read
+	 * @param rowsRead total number of read rows
+	 * @param lastElement last returned element or null if there were no elements
+	 */
+	protected void onExhausted(long rowsRead, OElement lastElement) {
+	}
+	
+	/**
+	 * @return true if underling {@link OResultSet} is still open
+	 */
+	public boolean isOpen() {
+		return resultSet!=null;
+	}
+
+	@Override
+	public void close() {
+		if(resultSet!=null)
+		{
+			resultSet.close();
+			resultSet = null;
+			nextElement = null;
+		}
+		if(openIterators!=null)
+		{
+			openIterators.remove(this);
+			openIterators = null;
+		}
+	}
+	
+	/**
+	 * Close iterator if it's {@link OResultSetIterator}
+	 * @param iterator {@link Iterator} to close
+	 */
+	public static void closeQuietly(Iterator<?> iterator) {
+		if(iterator instanceof OResultSetIterator) ((OResultSetIterator<?>)iterator).close();
+	}
+	
+	/**
+	 * Not closed iterators of a {@link RequestCycle}: single listener per request closes all of them upon detach
+	 */
+	private static class OpenIterators implements IRequestCycleListener
+	{
+		private final Set<OResultSetIterator<?>> iterators = Collections.newSetFromMap(new IdentityHashMap<OResultSetIterator<?>, Boolean>());
+		
+		public static OpenIterators get(RequestCycle cycle)
+		{
+			if(cycle==null) return null;
+			OpenIterators ret = cycle.getMetaData(OPEN_ITERATORS_KEY);
+			if(ret==null)
+			{
+				ret = new OpenIterators();
+				cycle.setMetaData(OPEN_ITERATORS_KEY, ret);
+				cycle.getListeners().add(ret);
+			}
+			return ret;
+		}
+		
+		public void add(OResultSetIterator<?> iterator)
+		{
+			iterators.add(iterator);
+		}
+		
+		public void remove(OResultSetIterator<?> iterator)
+		{
+			iterators.remove(iterator);
+		}
+		
+		@Override
+		public void onDetach(RequestCycle cycle) {
+			for (OResultSetIterator<?> iterator : new ArrayList<OResultSetIterator<?>>(iterators)) {
+				iterator.close();
+			}
+			cycle.setMetaData(OPEN_ITERATORS_KEY, null);
+		}
+	}
+
+}
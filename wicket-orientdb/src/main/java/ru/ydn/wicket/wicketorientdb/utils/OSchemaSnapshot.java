@@ -0,0 +1,229 @@
+package ru.ydn.wicket.wicketorientdb.utils;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.orientechnologies.orient.core.config.OStorageConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.OMetadataUpdateListener;
+import com.orientechnologies.orient.core.db.OSharedContext;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexManagerAbstract;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OSchemaShared;
+
+import ru.ydn.wicket.wicketorientdb.OrientDbWebApplication;
+
+/**
+ * Application wide snapshot of a database schema: unmodifiable name indexed maps of classes, properties and indexes.
+ * Maps contain the same live schema objects as returned by {@link OSchema}, so they are not immutable by themselves.
+ * Snapshot is dropped as soon as OrientDB reports change of schema or indexes and it's rebuilt upon next lookup.
+ * Lookups which are missed in the snapshot are delegated to the database, so results are the same as of direct lookups.
+ */
+public class OSchemaSnapshot {
+
+	private static final Registry SHARED = new Registry();
+
+	private final Map<String, OClass> classes;
+	private final Map<String, OProperty> properties;
+	private final Map<String, OIndex> indexes;
+	private final Map<String, OIndex> classIndexes;
+
+	private OSchemaSnapshot(ODatabaseDocumentInternal db) {
+		OSchema schema = db.getMetadata().getSchema();
+		Map<String, OClass> classes = new HashMap<String, OClass>();
+		Map<String, OProperty> properties = new HashMap<String, OProperty>();
+		Map<String, OIndex> classIndexes = new HashMap<String, OIndex>();
+		OIndexManagerAbstract indexManager = db.getMetadata().getIndexManagerInternal();
+		for (OClass oClass : schema.getClasses()) {
+			String classKey = toClassKey(oClass.getName());
+			classes.put(classKey, oClass);
+			collectProperties(oClass, classKey, properties);
+			for (OIndex index : indexManager.getClassIndexes(db, oClass.getName())) {
+				classIndexes.put(classKey+'\n'+index.getName(), index);
+			}
+		}
+		Map<String, OIndex> indexes = new HashMap<String, OIndex>();
+		for (OIndex index : indexManager.getIndexes(db)) {
+			indexes.put(index.getName(), index);
+		}
+		this.classes = Collections.unmodifiableMap(classes);
+		this.properties = Collections.unmodifiableMap(properties);
+		this.indexes = Collections.unmodifiableMap(indexes);
+		this.classIndexes = Collections.unmodifiableMap(classIndexes);
+	}
+
+	/**
+	 * Collect declared and inherited properties of a class: properties of subclasses take precedence
+	 */
+	private static void collectProperties(OClass oClass, String classKey, Map<String, OProperty> properties) {
+		Deque<OClass> toVisit = new ArrayDeque<OClass>();
+		Set<OClass> visited = new HashSet<OClass>();
+		toVisit.add(oClass);
+		while(!toVisit.isEmpty()) {
+			OClass current = toVisit.poll();
+			if(!visited.add(current)) continue;
+			for (OProperty property : current.declaredProperties()) {
+				String key = classKey+'\n'+property.getName();
+				if(!properties.containsKey(key)) properties.put(key, property);
+			}
+			toVisit.addAll(current.getSuperClasses());
+		}
+	}
+
+	/**
+	 * @return unmodifiable map of classes by lowercased name
+	 */
+	public Map<String, OClass> getClasses() {
+		return classes;
+	}
+
+	/**
+	 * @return unmodifiable map of properties by 'lowercased class name\nproperty name'
+	 */
+	public Map<String, OProperty> getProperties() {
+		return properties;
+	}
+
+	/**
+	 * @return unmodifiable map of indexes by name
+	 */
+	public Map<String, OIndex> getIndexes() {
+		return indexes;
+	}
+
+	/**
+	 * Lookup {@link OClass} by name
+	 * @param db database to use if class is absent in the snapshot
+	 * @param className name of a class
+	 * @return {@link OClass} or null
+	 */
+	public OClass getClass(ODatabaseDocumentInternal db, String className) {
+		if(className==null) return null;
+		OClass ret = classes.get(toClassKey(className));
+		return ret!=null?ret:db.getMetadata().getSchema().getClass(className);
+	}
+
+	/**
+	 * Lookup {@link OProperty} by class and name
+	 * @param oClass class of a property
+	 * @param propertyName name of a property
+	 * @return {@link OProperty} or null
+	 */
+	public OProperty getProperty(OClass oClass, String propertyName) {
+		if(oClass==null || propertyName==null) return null;
+		String classKey = toClassKey(oClass.getName());
+		//Class might be not from this snapshot: for example, immutable one
+		OProperty ret = classes.get(classKey)==oClass?properties.get(classKey+'\n'+propertyName):null;
+		return ret!=null?ret:oClass.getProperty(propertyName);
+	}
+
+	/**
+	 * Lookup {@link OIndex} by name
+	 * @param db database to use if index is absent in the snapshot
+	 * @param className optional name of a class of the index
+	 * @param indexName name of an index
+	 * @return {@link OIndex} or null
+	 */
+	public OIndex getIndex(ODatabaseDocumentInternal db, String className, String indexName) {
+		if(indexName==null) return null;
+		OIndex ret = className!=null?classIndexes.get(toClassKey(className)+'\n'+indexName):indexes.get(indexName);
+		if(ret!=null) return ret;
+		OIndexManagerAbstract indexManager = db.getMetadata().getIndexManagerInternal();
+		return className!=null?indexManager.getClassIndex(db, className, indexName):indexManager.getIndex(db, indexName);
+	}
+
+	private static String toClassKey(String className) {
+		return className.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Obtain actual snapshot of schema for the database. Snapshot is created if required
+	 * @param db database to obtain snapshot for
+	 * @return actual {@link OSchemaSnapshot}
+	 */
+	public static OSchemaSnapshot get(ODatabaseDocumentInternal db) {
+		return getRegistry().getSnapshot(db);
+	}
+
+	/**
+	 * Drop all snapshots of current application
+	 */
+	public static void invalidateAll() {
+		getRegistry().snapshots.clear();
+	}
+
+	private static Registry getRegistry() {
+		OrientDbWebApplication app = OrientDbWebApplication.lookupApplication();
+		if(app==null) return SHARED;
+		synchronized (app) {
+			Registry registry = app.getMetaData(Registry.class);
+			if(registry==null) {
+				registry = new Registry();
+				app.setMetaData(Registry.class, registry);
+			}
+			return registry;
+		}
+	}
+
+	/**
+	 * Snapshots of databases by name: snapshot is dropped as soon as OrientDB notifies about change of metadata
+	 */
+	private static class Registry implements OMetadataUpdateListener {
+		private final Map<String, OSchemaSnapshot> snapshots = new ConcurrentHashMap<String, OSchemaSnapshot>();
+		private final Set<OSharedContext> listenedContexts = Collections.newSetFromMap(new WeakHashMap<OSharedContext, Boolean>());
+		private final AtomicLong changes = new AtomicLong();
+
+		public OSchemaSnapshot getSnapshot(ODatabaseDocumentInternal db) {
+			String name = db.getName();
+			OSchemaSnapshot snapshot = snapshots.get(name);
+			if(snapshot==null) {
+				listen(db.getSharedContext());
+				long changesBefore = changes.get();
+				snapshot = new OSchemaSnapshot(db);
+				//Don't store snapshot if metadata was changed during building
+				if(changesBefore==changes.get()) snapshots.put(name, snapshot);
+			}
+			return snapshot;
+		}
+
+		private synchronized void listen(OSharedContext context) {
+			if(context!=null && listenedContexts.add(context)) context.registerListener(this);
+		}
+
+		@Override
+		public void onSchemaUpdate(String database, OSchemaShared schema) {
+			changes.incrementAndGet();
+			snapshots.remove(database);
+		}
+
+		@Override
+		public void onIndexManagerUpdate(String database, OIndexManagerAbstract indexManager) {
+			changes.incrementAndGet();
+			snapshots.remove(database);
+		}
+
+		@Override
+		public void onFunctionLibraryUpdate(String database) {
+		}
+
+		@Override
+		public void onSequenceLibraryUpdate(String database) {
+		}
+
+		@Override
+		public void onStorageConfigurationUpdate(String database, OStorageConfiguration update) {
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package ru.ydn.wicket.wicketorientdb.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of saving of documents by {@link DBClosure#sudoSaveAll(Iterable, int, boolean, java.util.function.Consumer)}.
+ * It's passed to a callback after every chunk.
+ */
+public class SaveAllStatistics {
+	
+	private final long startTime = System.nanoTime();
+	private long finishTime = -1;
+	private long savedDocuments;
+	private long failedDocuments;
+	private int chunks;
+	private int failedChunks;
+	private RuntimeException lastError;
+	
+	void chunkSaved(int size) {
+		chunks++;
+		savedDocuments+=size;
+	}
+	
+	void chunkFailed(int saved, int failed, RuntimeException error) {
+		chunks++;
+		failedChunks++;
+		savedDocuments+=saved;
+		failedDocuments+=failed;
+		lastError = error;
+	}
+	
+	void finish() {
+		finishTime = System.nanoTime();
+	}
+	
+	/**
+	 * @return number of successfully saved documents
+	 */
+	public long getSavedDocuments() {
+		return savedDocuments;
+	}
+	
+	/**
+	 * @return number of documents which were not saved
+	 */
+	public long getFailedDocuments() {
+		return failedDocuments;
+	}
+	
+	/**
+	 * @return number of processed chunks
+	 */
+	public int getChunks() {
+		return chunks;
+	}
+	
+	/**
+	 * @return number of chunks which were not saved completely
+	 */
+	public int getFailedChunks() {
+		return failedChunks;
+	}
+	
+	/**
+	 * @return last error or null if there were no errors
+	 */
+	public RuntimeException getLastError() {
+		return lastError;
+	}
+	
+	/**
+	 * @return true if saving was ended: documents of failed chunks are not saved, see {@link #getFailedChunks()}
+	 */
+	public boolean isFinished() {
+		return finishTime>=0;
+	}
+	
+	/**
+	 * @param unit {@link TimeUnit} of the result
+	 * @return time spent for saving
+	 */
+	public long getDuration(TimeUnit unit) {
+		return unit.convert((finishTime>=0?finishTime:System.nanoTime()) - startTime, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @return throughput of saving: documents per second
+	 */
+	public double getDocumentsPerSecond() {
+		long duration = getDuration(TimeUnit.NANOSECONDS);
+		return duration>0?savedDocuments*1e9/duration:0;
+	}
+	
+	@Override
+	public String toString() {
+		return "SaveAllStatistics [saved=" + savedDocuments + ", failed=" + failedDocuments + ", chunks=" + chunks 
+				+ ", failedChunks=" + failedChunks + ", docsPerSecond=" + Math.round(getDocumentsPerSecond()) + "]";
+	}
+}
@@ -0,0 +1,45 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+
+/**
+ * {@link IQueryCountStrategy} which caches results of count sql in {@link QueryCountCache} of an application.
+ * Cached value is shared across all sessions of the same user and expires after specified time or
+ * right after creation/deletion of a record of the target class.
+ * Updates of records don't invalidate cached values: so count of a query with a filter
+ * might stay stale up to specified time if filtered fields are changed.
+ */
+public class CachedQueryCountStrategy implements IQueryCountStrategy {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final long ttlMillis;
+	
+	public CachedQueryCountStrategy(long ttl, TimeUnit unit) {
+		this.ttlMillis = unit.toMillis(ttl);
+	}
+
+	@Override
+	public long count(ODatabaseSession db, IQueryManager queryManager, Map<String, Object> params) {
+		String countSql = queryManager.getCountSql();
+		QueryCountCache cache = QueryCountCache.get();
+		if(cache==null) return ExactQueryCountStrategy.count(db, countSql, params);
+		String key = QueryCountCache.toKey(db, countSql, params);
+		String className = queryManager.getTargetClassName();
+		Long count = cache.getCount(key, className, ttlMillis);
+		if(count==null) {
+			long generation = cache.getGeneration(className);
+			count = ExactQueryCountStrategy.count(db, countSql, params);
+			cache.putCount(key, count, generation);
+		}
+		return count;
+	}
+	
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+}
@@ -0,0 +1,40 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import java.util.Map;
+
+import org.apache.wicket.util.lang.Args;
+
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+
+/**
+ * {@link IQueryCountStrategy} which uses number of records in clusters of a class if sql is just a scan of a whole class.
+ * Number of records is not exact if there are some restrictions on records level.
+ * Fallback strategy is used for all other sqls.
+ */
+public class EstimatedQueryCountStrategy implements IQueryCountStrategy {
+	
+	private static final long serialVersionUID = 1L;
+	public static final EstimatedQueryCountStrategy INSTANCE = new EstimatedQueryCountStrategy();
+	
+	private final IQueryCountStrategy fallback;
+	
+	public EstimatedQueryCountStrategy() {
+		this(ExactQueryCountStrategy.INSTANCE);
+	}
+	
+	public EstimatedQueryCountStrategy(IQueryCountStrategy fallback) {
+		Args.notNull(fallback, "fallback");
+		this.fallback = fallback;
+	}
+
+	@Override
+	public long count(ODatabaseSession db, IQueryManager queryManager, Map<String, Object> params) {
+		if(queryManager.isPlainClassScan()) {
+			OClass oClass = db.getMetadata().getSchema().getClass(queryManager.getTargetClassName());
+			if(oClass!=null) return oClass.count(true);
+		}
+		return fallback.count(db, queryManager, params);
+	}
+
+}
@@ -0,0 +1,39 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import java.util.Map;
+
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+/**
+ * {@link IQueryCountStrategy} which executes count sql every time
+ */
+public class ExactQueryCountStrategy implements IQueryCountStrategy {
+	
+	private static final long serialVersionUID = 1L;
+	public static final ExactQueryCountStrategy INSTANCE = new ExactQueryCountStrategy();
+
+	@Override
+	public long count(ODatabaseSession db, IQueryManager queryManager, Map<String, Object> params) {
+		return count(db, queryManager.getCountSql(), params);
+	}
+	
+	/**
+	 * Execute count sql
+	 * @param db {@link ODatabaseSession} to execute sql on
+	 * @param countSql sql which returns single row with 'count' property
+	 * @param params parameters of the query
+	 * @return number of records
+	 */
+	public static long count(ODatabaseSession db, String countSql, Map<String, Object> params) {
+		try(OResultSet result = db.query(countSql, params)) {
+			if (result.hasNext()) {
+				Number sizeNumber = result.next().getProperty("count");
+				return sizeNumber != null ? sizeNumber.longValue() : 0;
+			} else {
+				return 0L;
+			}
+		}
+	}
+
+}
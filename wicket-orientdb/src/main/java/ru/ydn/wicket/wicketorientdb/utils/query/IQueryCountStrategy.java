@@ -0,0 +1,22 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import java.util.Map;
+
+import org.apache.wicket.util.io.IClusterable;
+
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+
+/**
+ * Strategy for calculation of number of records which can be selected by {@link IQueryManager}
+ */
+public interface IQueryCountStrategy extends IClusterable {
+	
+	/**
+	 * Count records which can be selected by {@link IQueryManager}
+	 * @param db {@link ODatabaseSession} to be used for calculation
+	 * @param queryManager {@link IQueryManager} to count records for
+	 * @param params parameters of the query
+	 * @return number of records
+	 */
+	public long count(ODatabaseSession db, IQueryManager queryManager, Map<String, Object> params);
+}
@@ -9,6 +9,23 @@ import java.util.Collection;
  * Interface for different implementation of query managers 
  */
 public interface IQueryManager extends IClusterable {
+	/**
+	 * Name of the parameter which holds sort key of the last seen record for keyset pagination
+	 */
+	public static final String KEYSET_SORT_KEY_PARAM = "keysetSortKey";
+	/**
+	 * Name of the parameter which holds {@link com.orientechnologies.orient.core.id.ORID} of the last seen record for keyset pagination
+	 */
+	public static final String KEYSET_RID_PARAM = "keysetRid";
+	/**
+	 * Name of the parameter which holds number of records to skip in paged sql
+	 */
+	public static final String SKIP_PARAM = "querySkip";
+	/**
+	 * Name of the parameter which holds maximum number of records to return in paged sql
+	 */
+	public static final String LIMIT_PARAM = "queryLimit";
+
 	public String getProjection();
 
 	/**
@@ -22,6 +39,16 @@ public interface IQueryManager extends IClusterable {
 	 */
 	public String getCountSql();
 
+	/**
+	 * @return name of a class which is a target of the sql or null if target is not a class
+	 */
+	public String getTargetClassName();
+
+	/**
+	 * @return true if sql is just a scan of a whole class: without conditions, expands and applied filters
+	 */
+	public boolean isPlainClassScan();
+
 	/**
 	 * @return true if is some order by
 	 */
@@ -37,6 +64,33 @@ public interface IQueryManager extends IClusterable {
 	 */
 	public String prepareSql(Integer first, Integer count, String sortBy, boolean isAscending);
 
+	/**
+	 * Prepare sql for a page. Values for SKIP and LIMIT are not included into sql:
+	 * they should be provided by parameters {@link #SKIP_PARAM} and {@link #LIMIT_PARAM}.
+	 * So the same sql is used for all pages
+	 * @param skip if true - sql contains SKIP clause
+	 * @param limit if true - sql contains LIMIT clause
+	 * @param sortBy sort field
+	 * @param isAscending if true order by ascending, order by descending otherwise
+	 * @return prepared sql
+	 */
+	public String preparePagedSql(boolean skip, boolean limit, String sortBy, boolean isAscending);
+
+	/**
+	 * Prepare sql for keyset (seek) pagination. Results are always ordered by sort field and then by @rid.
+	 * If seek is true, only records after the last seen one are selected: previous sort key and @rid
+	 * should be provided by parameters {@link #KEYSET_SORT_KEY_PARAM} and {@link #KEYSET_RID_PARAM}.
+	 * Previous sort key should not be null: records with null sort keys can be reached only by SKIP from an earlier record.
+	 * Values for SKIP and LIMIT should be provided by parameters {@link #SKIP_PARAM} and {@link #LIMIT_PARAM}
+	 * @param skip if true - sql contains SKIP clause to skip records after the last seen one (or from the beginning)
+	 * @param limit if true - sql contains LIMIT clause
+	 * @param sortBy sort field or null to order just by @rid
+	 * @param isAscending if true order by ascending, order by descending otherwise
+	 * @param seek if true - select records after the last seen one
+	 * @return prepared sql
+	 */
+	public String prepareKeysetSql(boolean skip, boolean limit, String sortBy, boolean isAscending, boolean seek);
+
 	/**
 	 * Add new {@link IFilterCriteriaManager} for current {@link IQueryManager}
 	 * @param field filtered field name
@@ -0,0 +1,237 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.orientechnologies.orient.core.sql.parser.OFromClause;
+import com.orientechnologies.orient.core.sql.parser.OFromItem;
+import com.orientechnologies.orient.core.sql.parser.OProjection;
+import com.orientechnologies.orient.core.sql.parser.OSelectStatement;
+import com.orientechnologies.orient.core.sql.parser.OWhereClause;
+import ru.ydn.wicket.wicketorientdb.utils.query.filter.IFilterCriteriaManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Query manager which works over parsed tree of a query.
+ * Parsed trees are obtained from {@link QueryParseCache}: so SQL is parsed just once per application
+ * and all required clauses are added to a copy of the tree.
+ * {@link StringQueryManager} is used by default: parsed one can be passed to {@link ru.ydn.wicket.wicketorientdb.model.OQueryModel} explicitly.
+ */
+public class ParsedQueryManager implements IQueryManager {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String sql;
+	private final String projection;
+	private final boolean containExpand;
+	private final boolean hasOrderBy;
+	private final String targetClassName;
+	private final boolean plainClassScan;
+	private final String countProjection;
+	private final Map<String, IFilterCriteriaManager> managers;
+
+	public ParsedQueryManager(String sql) {
+		this.sql = sql;
+		OSelectStatement statement = QueryParseCache.get().parseSelect(sql);
+		OProjection oProjection = statement.getProjection();
+		projection = oProjection!=null ? oProjection.toString() : "";
+		containExpand = oProjection!=null && oProjection.isExpand();
+		countProjection = containExpand ? "sum(" + oProjection.getExpandContent() + ".size()) as count" : "count(*) as count";
+		hasOrderBy = statement.getOrderBy()!=null;
+		OWhereClause where = statement.getWhereClause();
+		OFromItem target = statement.getTarget()!=null ? statement.getTarget().getItem() : null;
+		targetClassName = !containExpand && target!=null && target.getIdentifier()!=null && target.getModifier()==null
+							? target.getIdentifier().getStringValue() : null;
+		plainClassScan = targetClassName!=null
+							&& (oProjection==null || oProjection.getItems().size()==1 && oProjection.getItems().get(0).isAll())
+							&& where==null && statement.getLetClause()==null && statement.getGroupBy()==null
+							&& statement.getUnwind()==null && statement.getSkip()==null && statement.getLimit()==null;
+		managers = Maps.newHashMap();
+	}
+
+	@Override
+	public String getProjection() {
+		return projection;
+	}
+
+	@Override
+	public String getSql() {
+		final String filter = applyFilters();
+		return QueryStatementCache.get().getSql(toKey("sql", filter), () -> {
+			OSelectStatement statement = parseSql();
+			if (containExpand && !Strings.isNullOrEmpty(filter)) statement = wrap(statement);
+			addCondition(statement, filter);
+			return statement.toString();
+		});
+	}
+
+	@Override
+	public String getCountSql() {
+		final String filter = applyFilters();
+		return QueryStatementCache.get().getSql(toKey("count", filter), () -> {
+			OSelectStatement statement = parseSql();
+			if (containExpand && !Strings.isNullOrEmpty(filter)) {
+				statement = wrap(statement);
+				statement.setProjection(QueryParseCache.get().parseProjection("count(*) as count"));
+			} else {
+				statement.setProjection(QueryParseCache.get().parseProjection(countProjection));
+			}
+			addCondition(statement, filter);
+			return statement.toString();
+		});
+	}
+
+	@Override
+	public String getTargetClassName() {
+		return targetClassName;
+	}
+
+	@Override
+	public boolean isPlainClassScan() {
+		return plainClassScan && Strings.isNullOrEmpty(applyFilters());
+	}
+
+	@Override
+	public boolean hasOrderBy() {
+		return hasOrderBy;
+	}
+
+	@Override
+	public String prepareSql(final Integer first, final Integer count, final String sortBy, final boolean isAscending) {
+		final boolean limit = count != null && count > 0;
+		//Values are set into parsed tree of cached paged sql: so there is no separate cache entry per page
+		OSelectStatement statement = QueryParseCache.get().parseSelect(preparePagedSql(first != null, limit, sortBy, isAscending));
+		if (first != null) statement.setSkip(QueryParseCache.newSkip(first));
+		if (limit) statement.setLimit(QueryParseCache.newLimit(count));
+		return statement.toString();
+	}
+
+	@Override
+	public String preparePagedSql(final boolean skip, final boolean limit, final String sortBy, final boolean isAscending) {
+		final String filter = applyFilters();
+		return QueryStatementCache.get().getSql(toKey("paged", filter, skip, limit, sortBy, isAscending), () -> {
+			OSelectStatement statement = preparePage(filter, skip, sortBy, isAscending);
+			if (skip) statement.setSkip(QueryParseCache.get().parseSkip("SKIP :" + SKIP_PARAM));
+			if (limit) statement.setLimit(QueryParseCache.get().parseLimit("LIMIT :" + LIMIT_PARAM));
+			return statement.toString();
+		});
+	}
+
+	@Override
+	public String prepareKeysetSql(final boolean skip, final boolean limit, final String sortBy, final boolean isAscending, final boolean seek) {
+		final String filter = applyFilters();
+		return QueryStatementCache.get().getSql(toKey("keyset", filter, skip, limit, sortBy, isAscending, seek), () -> {
+			OSelectStatement statement = parseSql();
+			if (containExpand) statement = wrap(statement);
+			addCondition(statement, filter);
+			if (seek) addCondition(statement, prepareSeekFilter(sortBy, isAscending));
+			String direction = isAscending ? " ASC" : " DESC";
+			StringBuilder orderBy = new StringBuilder("ORDER BY ");
+			if (sortBy != null && !"@rid".equals(sortBy)) orderBy.append(sortBy).append(direction).append(", ");
+			orderBy.append("@rid").append(direction);
+			statement.setOrderBy(QueryParseCache.get().parseOrderBy(orderBy.toString()));
+			if (skip) statement.setSkip(QueryParseCache.get().parseSkip("SKIP :" + SKIP_PARAM));
+			if (limit) statement.setLimit(QueryParseCache.get().parseLimit("LIMIT :" + LIMIT_PARAM));
+			return statement.toString();
+		});
+	}
+
+	private OSelectStatement preparePage(String filter, boolean skip, String sortBy, boolean isAscending) {
+		OSelectStatement statement = parseSql();
+		if (sortBy != null) statement.setOrderBy(QueryParseCache.get().parseOrderBy(toOrderBy(sortBy, isAscending)));
+		if (containExpand && (skip || !Strings.isNullOrEmpty(filter))) statement = wrap(statement);
+		addCondition(statement, filter);
+		return statement;
+	}
+
+	/**
+	 * Compose key for {@link QueryStatementCache}: base sql is always part of the key
+	 */
+	private String toKey(Object... parts) {
+		return QueryStatementCache.toKey(getClass().getName(), sql, QueryStatementCache.toKey(parts));
+	}
+
+	private OSelectStatement parseSql() {
+		return QueryParseCache.get().parseSelect(sql);
+	}
+
+	/**
+	 * Wrap statement into 'SELECT FROM (statement)' to allow filtering and paging of expanded results
+	 */
+	private OSelectStatement wrap(OSelectStatement statement) {
+		OFromItem item = new OFromItem(-1);
+		item.setStatement(statement);
+		OFromClause from = new OFromClause(-1);
+		from.setItem(item);
+		OSelectStatement ret = new OSelectStatement(-1);
+		ret.setTarget(from);
+		return ret;
+	}
+
+	/**
+	 * Add condition to the top level WHERE clause of the statement: nested statements are not affected
+	 */
+	private void addCondition(OSelectStatement statement, String condition) {
+		if (Strings.isNullOrEmpty(condition)) return;
+		OWhereClause where = statement.getWhereClause();
+		if (where == null) {
+			where = new OWhereClause(-1);
+			where.setBaseExpression(QueryParseCache.get().parseCondition(condition));
+			statement.setWhereClause(where);
+		} else {
+			//Both conditions are explicitly enclosed into parenthesis: AND has higher priority than OR
+			where.setBaseExpression(QueryParseCache.get().parseCondition("(" + where + ") AND (" + condition + ")"));
+		}
+	}
+
+	private String toOrderBy(String sortBy, boolean isAscending) {
+		return "ORDER BY " + sortBy + (isAscending ? " ASC" : " DESC");
+	}
+
+	private String prepareSeekFilter(String sortBy, boolean isAscending) {
+		String operator = isAscending ? " > " : " < ";
+		String ridFilter = "@rid" + operator + ":" + KEYSET_RID_PARAM;
+		if (sortBy == null || "@rid".equals(sortBy)) return ridFilter;
+		String sortKey = ":" + KEYSET_SORT_KEY_PARAM;
+		//Null values are the lowest ones: they follow any not null bookmark in descending order
+		String nullFilter = isAscending ? "" : " OR " + sortBy + " IS NULL";
+		return sortBy + operator + sortKey + " OR (" + sortBy + " = " + sortKey + " AND " + ridFilter + ")" + nullFilter;
+	}
+
+	private String applyFilters() {
+		StringBuilder sb = new StringBuilder();
+		int counter = 0;
+		for (IFilterCriteriaManager manager : managers.values()) {
+			if (manager != null && manager.isFilterApply()) {
+				if (counter > 0)
+					sb.append(" AND ");
+				sb.append(manager.apply());
+				counter++;
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void addFilterCriteriaManager(String field, IFilterCriteriaManager manager) {
+		managers.put(field, manager);
+	}
+
+	@Override
+	public Collection<IFilterCriteriaManager> getFilterCriteriaManagers() {
+		return Collections.unmodifiableCollection(managers.values());
+	}
+
+	@Override
+	public IFilterCriteriaManager getFilterCriteriaManager(String field) {
+		return managers.get(field);
+	}
+
+	@Override
+	public void clearFilterCriteriaManagers() {
+		managers.clear();
+	}
+
+}
@@ -0,0 +1,135 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.security.OSecurityUser;
+
+import ru.ydn.wicket.wicketorientdb.OrientDbWebApplication;
+
+/**
+ * Application wide cache of results of count sqls.
+ * Cached values are invalidated by {@link QueryCountCacheInvalidationHook} upon creation or deletion of records:
+ * each class has own generation which is incremented on every change of records of this class or of its subclasses.
+ * Values for sqls with unknown target class are invalidated by any change.
+ */
+public class QueryCountCache {
+	
+	private static final int MAX_SIZE = 10000;
+	
+	private static class CountEntry {
+		private final long count;
+		private final long generation;
+		private final long created;
+		
+		public CountEntry(long count, long generation) {
+			this.count = count;
+			this.generation = generation;
+			this.created = System.currentTimeMillis();
+		}
+	}
+	
+	private final Cache<String, CountEntry> cache = CacheBuilder.newBuilder().maximumSize(MAX_SIZE).build();
+	private final Map<String, AtomicLong> classGenerations = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong globalGeneration = new AtomicLong();
+	
+	/**
+	 * Obtain cached count
+	 * @param key key of the count: see {@link #toKey(ODatabaseSession, String, Map)}
+	 * @param className name of target class of the sql or null
+	 * @param ttlMillis maximum age of cached value
+	 * @return cached count or null if there is no actual value
+	 */
+	public Long getCount(String key, String className, long ttlMillis) {
+		CountEntry entry = cache.getIfPresent(key);
+		if(entry==null) return null;
+		if(entry.generation!=getGeneration(className) 
+				|| System.currentTimeMillis()-entry.created>ttlMillis) {
+			cache.invalidate(key);
+			return null;
+		}
+		return entry.count;
+	}
+	
+	/**
+	 * Put count to the cache
+	 * @param key key of the count
+	 * @param count count to be cached
+	 * @param generation generation of target class obtained before count calculation
+	 */
+	public void putCount(String key, long count, long generation) {
+		cache.put(key, new CountEntry(count, generation));
+	}
+	
+	/**
+	 * @param className name of a class or null if class is unknown
+	 * @return current generation of records for specified class
+	 */
+	public long getGeneration(String className) {
+		if(className==null) return globalGeneration.get();
+		AtomicLong generation = classGenerations.get(className.toLowerCase());
+		return generation!=null?generation.get():0L;
+	}
+	
+	/**
+	 * Invalidate all cached counts which depends on records of specified class
+	 * @param oClass class of changed record or null
+	 */
+	public void invalidate(OClass oClass) {
+		globalGeneration.incrementAndGet();
+		if(oClass!=null) {
+			incrementGeneration(oClass);
+			for(OClass superClass : oClass.getAllSuperClasses()) {
+				incrementGeneration(superClass);
+			}
+		}
+	}
+	
+	private void incrementGeneration(OClass oClass) {
+		classGenerations.computeIfAbsent(oClass.getName().toLowerCase(), k -> new AtomicLong()).incrementAndGet();
+	}
+	
+	/**
+	 * Invalidate all cached counts
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+	
+	/**
+	 * @return number of cached counts
+	 */
+	public long size() {
+		return cache.size();
+	}
+	
+	/**
+	 * Compose key for a count sql. Name of current user is part of the key:
+	 * counts might differ for different users due to record level security
+	 * @param db current database
+	 * @param countSql sql to be cached
+	 * @param params parameters of the sql
+	 * @return key to be used in cache
+	 */
+	public static String toKey(ODatabaseSession db, String countSql, Map<String, Object> params) {
+		StringBuilder sb = new StringBuilder();
+		OSecurityUser user = db.getUser();
+		sb.append(db.getName()).append('\n').append(user!=null?user.getName():"").append('\n').append(countSql);
+		if(params!=null && !params.isEmpty()) sb.append('\n').append(new TreeMap<String, Object>(params));
+		return sb.toString();
+	}
+	
+	/**
+	 * @return {@link QueryCountCache} of current application or null if there is no application
+	 */
+	public static QueryCountCache get() {
+		OrientDbWebApplication app = OrientDbWebApplication.lookupApplication();
+		return app!=null?app.getQueryCountCache():null;
+	}
+}
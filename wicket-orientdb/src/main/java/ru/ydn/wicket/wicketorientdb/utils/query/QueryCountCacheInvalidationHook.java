@@ -0,0 +1,35 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Hook which invalidates cached counts in {@link QueryCountCache} upon creation and deletion of records
+ */
+public class QueryCountCacheInvalidationHook extends ODocumentHookAbstract {
+	
+	public QueryCountCacheInvalidationHook(ODatabaseDocument database) {
+		super(database);
+	}
+	
+	@Override
+	public void onRecordAfterCreate(ODocument iDocument) {
+		invalidate(iDocument);
+	}
+	
+	@Override
+	public void onRecordAfterDelete(ODocument iDocument) {
+		invalidate(iDocument);
+	}
+	
+	private void invalidate(ODocument iDocument) {
+		QueryCountCache cache = QueryCountCache.get();
+		if(cache!=null) cache.invalidate(iDocument.getSchemaClass());
+	}
+
+	@Override
+	public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
+		return DISTRIBUTED_EXECUTION_MODE.BOTH;
+	}
+}
@@ -0,0 +1,172 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.wicket.WicketRuntimeException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultInternal;
+import com.orientechnologies.orient.core.sql.parser.OBooleanExpression;
+import com.orientechnologies.orient.core.sql.parser.OInteger;
+import com.orientechnologies.orient.core.sql.parser.OLimit;
+import com.orientechnologies.orient.core.sql.parser.OOrderBy;
+import com.orientechnologies.orient.core.sql.parser.OProjection;
+import com.orientechnologies.orient.core.sql.parser.OSelectStatement;
+import com.orientechnologies.orient.core.sql.parser.OSkip;
+import com.orientechnologies.orient.core.sql.parser.OrientSql;
+import com.orientechnologies.orient.core.sql.parser.ParseException;
+import com.orientechnologies.orient.core.sql.parser.SimpleNode;
+
+import ru.ydn.wicket.wicketorientdb.OrientDbWebApplication;
+
+/**
+ * Application wide bounded cache of parsed SQL statements and SQL fragments.
+ * Cached trees are never exposed: every call returns own copy which can be freely modified.
+ */
+public class QueryParseCache {
+
+	private static final int MAX_SIZE = 5000;
+	private static final QueryParseCache SHARED = new QueryParseCache();
+
+	@FunctionalInterface
+	private static interface IParser<T extends SimpleNode> {
+		public T parse(OrientSql parser) throws ParseException;
+	}
+
+	private final Cache<String, SimpleNode> cache = CacheBuilder.newBuilder().maximumSize(MAX_SIZE).recordStats().build();
+
+	/**
+	 * @param sql select statement to parse
+	 * @return copy of parsed statement
+	 */
+	public OSelectStatement parseSelect(String sql) {
+		return parse("select", sql, sql, OrientSql::SelectStatement);
+	}
+
+	/**
+	 * @param condition condition to parse
+	 * @return copy of parsed condition enclosed into parenthesis
+	 */
+	public OBooleanExpression parseCondition(String condition) {
+		return parse("condition", condition, "("+condition+")", OrientSql::ParenthesisBlock);
+	}
+
+	/**
+	 * @param projection projection to parse
+	 * @return copy of parsed projection
+	 */
+	public OProjection parseProjection(String projection) {
+		return parse("projection", projection, projection, OrientSql::Projection);
+	}
+
+	/**
+	 * @param orderBy order by clause to parse, for example: "ORDER BY name DESC"
+	 * @return copy of parsed order by clause
+	 */
+	public OOrderBy parseOrderBy(String orderBy) {
+		return parse("orderBy", orderBy, orderBy, OrientSql::OrderBy);
+	}
+
+	/**
+	 * @param skip skip clause to parse, for example: "SKIP 10"
+	 * @return copy of parsed skip clause
+	 */
+	public OSkip parseSkip(String skip) {
+		return parse("skip", skip, skip, OrientSql::Skip);
+	}
+
+	/**
+	 * @param limit limit clause to parse, for example: "LIMIT 10"
+	 * @return copy of parsed limit clause
+	 */
+	public OLimit parseLimit(String limit) {
+		return parse("limit", limit, limit, OrientSql::Limit);
+	}
+
+	/**
+	 * Create skip clause with a literal value without parsing and caching: for example, for a page of a query
+	 * @param value number of records to skip
+	 * @return new skip clause
+	 */
+	public static OSkip newSkip(int value) {
+		OSkip ret = new OSkip(-1);
+		ret.deserialize(toNumResult(value));
+		return ret;
+	}
+
+	/**
+	 * Create limit clause with a literal value without parsing and caching: for example, for a page of a query
+	 * @param value maximal number of records
+	 * @return new limit clause
+	 */
+	public static OLimit newLimit(int value) {
+		OLimit ret = new OLimit(-1);
+		ret.deserialize(toNumResult(value));
+		return ret;
+	}
+
+	/**
+	 * OSkip and OLimit have no setters: so literal value is provided in form of serialized clause
+	 */
+	private static OResult toNumResult(int value) {
+		OInteger num = new OInteger(-1);
+		num.setValue(value);
+		OResultInternal ret = new OResultInternal();
+		ret.setProperty("num", num.serialize());
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends SimpleNode> T parse(String kind, String key, String text, IParser<T> parser) {
+		String cacheKey = kind+'\n'+key;
+		SimpleNode node = cache.getIfPresent(cacheKey);
+		if(node==null) {
+			try {
+				node = parser.parse(new OrientSql(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8.name()));
+			} catch (Exception e) {
+				throw new WicketRuntimeException("Can't parse "+kind+": "+text, e);
+			}
+			cache.put(cacheKey, node);
+		}
+		return (T) node.copy();
+	}
+
+	/**
+	 * @return number of hits of the cache
+	 */
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	/**
+	 * @return number of misses of the cache
+	 */
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	/**
+	 * @return number of cached parsed trees
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * Invalidate all cached parsed trees
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * @return {@link QueryParseCache} of current application or shared one if there is no application
+	 */
+	public static QueryParseCache get() {
+		OrientDbWebApplication app = OrientDbWebApplication.lookupApplication();
+		return app!=null?app.getQueryParseCache():SHARED;
+	}
+}
@@ -0,0 +1,85 @@
+package ru.ydn.wicket.wicketorientdb.utils.query;
+
+import java.util.function.Supplier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import ru.ydn.wicket.wicketorientdb.OrientDbWebApplication;
+
+/**
+ * Application wide cache of sqls generated by {@link IQueryManager}s.
+ * Key of a generated sql consists of base sql, active filters, sort field and direction: values for SKIP, LIMIT and filters
+ * are bound parameters, so the same sql is reused for all pages of a table and OrientDB's statement cache is hit as well.
+ */
+public class QueryStatementCache {
+
+	private static final int MAX_SIZE = 5000;
+	private static final QueryStatementCache SHARED = new QueryStatementCache();
+
+	private final Cache<String, String> cache = CacheBuilder.newBuilder().maximumSize(MAX_SIZE).recordStats().build();
+
+	/**
+	 * Obtain generated sql from the cache or generate it if it's absent
+	 * @param key key of the sql: see {@link #toKey(Object...)}
+	 * @param generator generator of the sql
+	 * @return generated sql
+	 */
+	public String getSql(String key, Supplier<String> generator) {
+		String sql = cache.getIfPresent(key);
+		if(sql==null) {
+			sql = generator.get();
+			cache.put(key, sql);
+		}
+		return sql;
+	}
+
+	/**
+	 * @return number of hits of the cache
+	 */
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	/**
+	 * @return number of misses of the cache
+	 */
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	/**
+	 * @return number of cached sqls
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * Invalidate all cached sqls
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Compose key for a generated sql
+	 * @param parts parts of the key: base sql, active filters, sort field, direction and etc.
+	 * @return key to be used in cache
+	 */
+	public static String toKey(Object... parts) {
+		StringBuilder sb = new StringBuilder();
+		for (Object part : parts) {
+			sb.append(part).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return {@link QueryStatementCache} of current application or shared one if there is no application
+	 */
+	public static QueryStatementCache get() {
+		OrientDbWebApplication app = OrientDbWebApplication.lookupApplication();
+		return app!=null?app.getQueryStatementCache():SHARED;
+	}
+}
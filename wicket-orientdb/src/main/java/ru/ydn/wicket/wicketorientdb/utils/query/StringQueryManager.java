@@ -21,10 +21,14 @@ public class StringQueryManager implements IQueryManager {
 	private static final Pattern EXPAND_PATTERN = Pattern.compile("expand\\((.+)\\)", Pattern.CASE_INSENSITIVE);
     private static final Pattern ORDER_CHECK_PATTERN = Pattern.compile("order\\s+by", Pattern.CASE_INSENSITIVE);
 	private static final Pattern EMBEDDED_PATTERN = Pattern.compile("\\(select\\b(.+?)\\bfrom\\b(.+)\\)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern TARGET_CLASS_PATTERN = Pattern.compile("\\bfrom\\s+`?([a-z_][\\w]*)`?(\\s|$)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PLAIN_CLASS_SCAN_PATTERN = Pattern.compile("^\\s*select\\s+(\\*\\s+)?from\\s+`?[a-z_][\\w]*`?\\s*$", Pattern.CASE_INSENSITIVE);
 
     private String projection;
     private boolean containExpand;
     private boolean hasOrderBy;
+    private String targetClassName;
+    private boolean plainClassScan;
     private String sql;
     private String countSql;
     private final Map<String, IFilterCriteriaManager> managers;
@@ -47,6 +51,11 @@ public class StringQueryManager implements IQueryManager {
             throw new WicketRuntimeException("Can't find 'object(<.>)' part in your request: "+sql);
         }
         hasOrderBy = ORDER_CHECK_PATTERN.matcher(sql).find();
+        Matcher targetMatcher = TARGET_CLASS_PATTERN.matcher(sql);
+        if(targetMatcher.find() && !containExpand && sql.indexOf('(', targetMatcher.start())<0) {
+        	targetClassName = targetMatcher.group(1);
+        }
+        plainClassScan = PLAIN_CLASS_SCAN_PATTERN.matcher(sql).matches();
         managers = Maps.newHashMap();
 	}
 
@@ -65,6 +74,16 @@ public class StringQueryManager implements IQueryManager {
 		return prepareSql(countSql, true);
 	}
 
+	@Override
+	public String getTargetClassName() {
+		return targetClassName;
+	}
+
+	@Override
+	public boolean isPlainClassScan() {
+		return plainClassScan && Strings.isNullOrEmpty(applyFilters());
+	}
+
 	@Override
 	public boolean hasOrderBy() {
 		return hasOrderBy;
@@ -80,6 +99,56 @@ public class StringQueryManager implements IQueryManager {
 		return sb.toString();
 	}
 
+	@Override
+	public String preparePagedSql(final boolean skip, final boolean limit, final String sortBy, final boolean isAscending) {
+		final String filter = applyFilters();
+		return QueryStatementCache.get().getSql(toKey("paged", filter, skip, limit, sortBy, isAscending), () -> {
+			StringBuilder sb = new StringBuilder(sql.length() * 2);
+			sb.append(prepareSql(sql, filter, sortBy, isAscending, containExpand && skip || containExpand && !Strings.isNullOrEmpty(filter)));
+			if (skip) sb.append(" SKIP :").append(SKIP_PARAM);
+			if (limit) sb.append(" LIMIT :").append(LIMIT_PARAM);
+			return sb.toString();
+		});
+	}
+
+	@Override
+	public String prepareKeysetSql(final boolean skip, final boolean limit, final String sortBy, final boolean isAscending, final boolean seek) {
+		final String applied = applyFilters();
+		return QueryStatementCache.get().getSql(toKey("keyset", applied, skip, limit, sortBy, isAscending, seek), () -> {
+			String filter = applied;
+			if (seek) {
+				String seekFilter = prepareSeekFilter(sortBy, isAscending);
+				filter = Strings.isNullOrEmpty(filter) ? seekFilter : filter + " AND " + seekFilter;
+			}
+			StringBuilder sb = new StringBuilder(sql.length() * 2);
+			sb.append(prepareSql(sql, filter, null, false, containExpand));
+			String direction = isAscending ? "" : " desc";
+			sb.append(" ORDER BY ");
+			if (sortBy != null && !"@rid".equals(sortBy)) sb.append(sortBy).append(direction).append(", ");
+			sb.append("@rid").append(direction);
+			if (skip) sb.append(" SKIP :").append(SKIP_PARAM);
+			if (limit) sb.append(" LIMIT :").append(LIMIT_PARAM);
+			return sb.toString();
+		});
+	}
+
+	/**
+	 * Compose key for {@link QueryStatementCache}: base sql is always part of the key
+	 */
+	private String toKey(Object... parts) {
+		return QueryStatementCache.toKey(getClass().getName(), sql, QueryStatementCache.toKey(parts));
+	}
+
+	private String prepareSeekFilter(String sortBy, boolean isAscending) {
+		String operator = isAscending ? " > " : " < ";
+		String ridFilter = "@rid" + operator + ":" + KEYSET_RID_PARAM;
+		if (sortBy == null || "@rid".equals(sortBy)) return ridFilter;
+		String sortKey = ":" + KEYSET_SORT_KEY_PARAM;
+		//Null values are the lowest ones: they follow any not null bookmark in descending order
+		String nullFilter = isAscending ? "" : " OR " + sortBy + " IS NULL";
+		return "(" + sortBy + operator + sortKey + " OR (" + sortBy + " = " + sortKey + " AND " + ridFilter + ")" + nullFilter + ")";
+	}
+
 	private String prepareSql(String sql, boolean countSql) {
     	String filter = applyFilters();
     	boolean wrapForSkip = containExpand && !Strings.isNullOrEmpty(filter);
@@ -1,7 +1,26 @@
 package ru.ydn.wicket.wicketorientdb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.apache.wicket.Application;
+import org.apache.wicket.Session;
 import org.junit.ClassRule;
 import org.junit.Test;
 
@@ -11,7 +30,9 @@ import com.orientechnologies.orient.core.db.ODatabaseSession;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.metadata.security.OSecurityUser;
 import com.orientechnologies.orient.core.metadata.security.OUser;
 import com.orientechnologies.orient.core.record.impl.ODocument;
@@ -21,9 +42,12 @@ import ru.ydn.wicket.wicketorientdb.converter.ODocumentConverter;
 import ru.ydn.wicket.wicketorientdb.converter.ODocumentORIDConverter;
 import ru.ydn.wicket.wicketorientdb.converter.OIndexNameConverter;
 import ru.ydn.wicket.wicketorientdb.converter.OPropertyFullNameConverter;
+import ru.ydn.wicket.wicketorientdb.junit.WicketOrientDbTester;
 import ru.ydn.wicket.wicketorientdb.junit.WicketOrientDbTesterScope;
 import ru.ydn.wicket.wicketorientdb.utils.DBClosure;
 import ru.ydn.wicket.wicketorientdb.utils.DocumentWrapperTransformer;
+import ru.ydn.wicket.wicketorientdb.utils.OClusterFanOutQuery;
+import ru.ydn.wicket.wicketorientdb.utils.SaveAllStatistics;
 
 import static org.junit.Assert.*;
 import static ru.ydn.wicket.wicketorientdb.model.AbstractNamingModel.buitify;
@@ -77,6 +101,281 @@ public class MainUtilsTest
 		assertEquals(wicket.getTester().getMetadata().getSecurity().getUser("reader").getIdentity(), readerClosure.execute().getIdentity());
 	}
 	
+	@Test
+	public void testSudoScope() throws Exception
+	{
+		ODatabaseDocument current = ODatabaseRecordThreadLocal.instance().get();
+		ODatabaseSession scoped;
+		try(DBClosure.SudoScope scope = DBClosure.openSudoScope())
+		{
+			scoped = DBClosure.sudo(db -> db);
+			assertEquals("admin", scoped.getUser().getName());
+			assertSame(scoped, DBClosure.sudo(db -> db));
+			//Nested closures and scopes reuse the same session
+			assertSame(scoped, DBClosure.sudo(db -> DBClosure.sudoScope(() -> DBClosure.sudo(inner -> inner))));
+			assertSame(current, ODatabaseRecordThreadLocal.instance().get());
+			//Closures for other users are not affected
+			assertEquals("reader", new DBClosure<String>("reader", "reader") {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected String execute(ODatabaseSession db) {
+					return db.getUser().getName();
+				}
+			}.execute());
+		}
+		assertTrue(scoped.isClosed());
+		assertSame(current, ODatabaseRecordThreadLocal.instance().get());
+		
+		List<Function<ODatabaseSession, Object>> funcs = new ArrayList<Function<ODatabaseSession, Object>>();
+		for(int i=0; i<1000; i++) funcs.add(db -> db);
+		List<Object> results = DBClosure.sudoBatch(funcs);
+		assertEquals(1000, results.size());
+		assertEquals(1, new HashSet<Object>(results).size());
+		assertSame(current, ODatabaseRecordThreadLocal.instance().get());
+		
+		DBClosure.sudoConsumer(db -> db.getMetadata().getSchema().createClass("TestScopeFailure")
+										.createProperty("key", OType.INTEGER).setMandatory(true));
+		try(DBClosure.SudoScope scope = DBClosure.openSudoScope())
+		{
+			List<Function<ODatabaseSession, Object>> saves = new ArrayList<Function<ODatabaseSession, Object>>();
+			saves.add(db -> {
+				DBClosure.sudoSave(new ODocument("TestScopeFailure").field("key", 1));
+				return null;
+			});
+			saves.add(db -> {
+				//Second document is not valid: transaction fails before commit
+				DBClosure.sudoSave(new ODocument("TestScopeFailure").field("key", 2), new ODocument("TestScopeFailure"));
+				return null;
+			});
+			try
+			{
+				DBClosure.sudoBatch(saves);
+				fail("Saving of not valid document should fail");
+			}
+			catch (RuntimeException e)
+			{
+				//NOP
+			}
+			assertFalse(DBClosure.sudo(db -> db.getTransaction().isActive()));
+			DBClosure.sudoSave(new ODocument("TestScopeFailure").field("key", 3));
+		}
+		finally
+		{
+			assertEquals(2L, (long) DBClosure.sudo(db -> db.countClass("TestScopeFailure")));
+			DBClosure.sudoConsumer(db -> db.getMetadata().getSchema().dropClass("TestScopeFailure"));
+		}
+		
+		WicketOrientDbTester tester = wicket.getTester();
+		List<Integer> data = new ArrayList<Integer>();
+		for(int i=0; i<1000; i++) data.add(i);
+		tester.iterativelyTest(data, i -> DBClosure.sudo(db -> i)).log("DBClosure.sudo 1000 times without scope");
+		DBClosure.sudoScope(() -> tester.iterativelyTest(data, i -> DBClosure.sudo(db -> i))).log("DBClosure.sudo 1000 times within scope");
+	}
+	
+	@Test
+	public void testExecuteAsync() throws Exception
+	{
+		ODatabaseDocument current = ODatabaseRecordThreadLocal.instance().get();
+		Thread callerThread = Thread.currentThread();
+		CompletableFuture<String> future = DBClosure.sudoAsync(db -> {
+			assertNotSame(callerThread, Thread.currentThread());
+			assertNotSame(current, db);
+			assertSame(wicket.getTester().getApplication(), Application.get());
+			assertSame(wicket.getTester().getSession(), Session.get());
+			return db.getUser().getName();
+		});
+		assertEquals("admin", future.get(10, TimeUnit.SECONDS));
+		assertSame(current, ODatabaseRecordThreadLocal.instance().get());
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			CompletableFuture<String> readerFuture = new DBClosure<String>("reader", "reader") {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected String execute(ODatabaseSession db) {
+					return db.getUser().getName();
+				}
+			}.executeAsync(executor);
+			assertEquals("reader", readerFuture.get(10, TimeUnit.SECONDS));
+			//Thread context and database are cleaned up after execution
+			assertFalse(executor.submit(() -> Application.exists() || ODatabaseRecordThreadLocal.instance().isDefined()).get());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		OrientDbSettings settings = new OrientDbSettings();
+		ExecutorService defaultExecutor = (ExecutorService) settings.getClosureExecutor();
+		settings.shutdownClosureExecutor();
+		assertTrue(defaultExecutor.isTerminated());
+		try
+		{
+			new DBClosure<String>() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected String execute(ODatabaseSession db) {
+					return db.getName();
+				}
+			}.executeAsync(defaultExecutor);
+			fail("Closure should be rejected by shutdown executor");
+		}
+		catch (RejectedExecutionException e)
+		{
+			//NOP
+		}
+		//Terminated default executor is not used anymore
+		ExecutorService newExecutor = (ExecutorService) settings.getClosureExecutor();
+		assertNotSame(defaultExecutor, newExecutor);
+		assertFalse(newExecutor.isShutdown());
+		settings.shutdownClosureExecutor();
+		assertTrue(newExecutor.isTerminated());
+		ExecutorService customExecutor = Executors.newSingleThreadExecutor();
+		try
+		{
+			settings.setClosureExecutor(customExecutor);
+			settings.shutdownClosureExecutor();
+			assertFalse(customExecutor.isShutdown());
+			assertSame(customExecutor, settings.getClosureExecutor());
+		}
+		finally
+		{
+			customExecutor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testClusterFanOutQuery() throws Exception
+	{
+		List<Integer> values = new ArrayList<Integer>();
+		for(int i=0; i<250; i++) values.add(i);
+		Collections.shuffle(values, new Random(42));
+		DBClosure.sudoConsumer(db -> db.getMetadata().getSchema().createClass("TestFanOut", 4));
+		try
+		{
+			DBClosure.sudoSaveAll(values.stream().map(i -> new ODocument("TestFanOut").field("value", i)
+														.field("group", i%11==0 ? null : i%5)), 100);
+			OClusterFanOutQuery query = new OClusterFanOutQuery("TestFanOut").setPageSize(7);
+			assertEquals(4, query.getClusterNames().size());
+			assertEquals(250, query.count());
+			List<Integer> fetched = query.stream().map(d -> (Integer) d.field("value")).collect(Collectors.toList());
+			assertEquals(250, fetched.size());
+			assertEquals(new HashSet<Integer>(values), new HashSet<Integer>(fetched));
+			
+			query.where("value < ?", 100).orderBy("value", false);
+			assertEquals(100, query.count());
+			List<Integer> sorted = new ArrayList<Integer>();
+			for (ODocument doc : query) sorted.add(doc.field("value"));
+			List<Integer> expected = new ArrayList<Integer>();
+			for(int i=99; i>=0; i--) expected.add(i);
+			assertEquals(expected, sorted);
+			
+			assertEquals(0, new OClusterFanOutQuery("TestFanOut").where("value > 1000").stream().count());
+			
+			//Non-unique and null sort keys: pages should not lose or duplicate documents
+			for (boolean ascending : Arrays.asList(true, false)) {
+				OClusterFanOutQuery byGroup = new OClusterFanOutQuery("TestFanOut").orderBy("group", ascending).setPageSize(6);
+				List<ODocument> docs = byGroup.stream().collect(Collectors.toList());
+				assertEquals(250, docs.size());
+				assertEquals(250, docs.stream().map(ODocument::getIdentity).distinct().count());
+				Comparator<ODocument> comparator = byGroup.getComparator();
+				for (int i = 1; i < docs.size(); i++) assertTrue(comparator.compare(docs.get(i-1), docs.get(i))<0);
+				Integer first = docs.get(0).field("group");
+				assertEquals(ascending ? null : (Integer) 4, first);
+			}
+			Comparator<ODocument> comparator = new OClusterFanOutQuery("TestFanOut").orderBy("value", true).getComparator();
+			assertTrue(comparator.compare(new ODocument().field("value", 9), new ODocument().field("value", 10L))<0);
+			assertTrue(comparator.compare(new ODocument().field("value", 2.5d), new ODocument().field("value", 2))>0);
+			
+			//Clusters are queried lazily and pending sub-queries are cancelled upon close
+			AtomicInteger subQueries = new AtomicInteger();
+			OClusterFanOutQuery lazy = new OClusterFanOutQuery("TestFanOut").setPageSize(7)
+												.setExecutor(r -> {
+													subQueries.incrementAndGet();
+													ForkJoinPool.commonPool().execute(r);
+												});
+			try(OClusterFanOutQuery.IFanOutIterator it = lazy.iterator()) {
+				assertEquals(0, subQueries.get());
+				assertTrue(it.hasNext());
+				assertNotNull(it.next());
+				assertTrue(subQueries.get()<4);
+				it.close();
+				assertFalse(it.hasNext());
+			}
+		}
+		finally
+		{
+			DBClosure.sudoConsumer(db -> db.getMetadata().getSchema().dropClass("TestFanOut"));
+		}
+	}
+	
+	@Test
+	public void testSudoSaveAll() throws Exception
+	{
+		DBClosure.sudoConsumer(db -> {
+			OClass oClass = db.getMetadata().getSchema().createClass("TestSaveAll");
+			oClass.createProperty("key", OType.INTEGER).createIndex(OClass.INDEX_TYPE.UNIQUE);
+		});
+		try
+		{
+			List<SaveAllStatistics> progress = new ArrayList<SaveAllStatistics>();
+			AtomicInteger closed = new AtomicInteger();
+			SaveAllStatistics statistics = DBClosure.sudoSaveAll(IntStream.range(0, 1050).mapToObj(i -> new ODocument("TestSaveAll").field("key", i))
+																	.onClose(closed::incrementAndGet), 100);
+			assertEquals(1, closed.get());
+			assertEquals(1050, statistics.getSavedDocuments());
+			assertEquals(11, statistics.getChunks());
+			assertEquals(0, statistics.getFailedChunks());
+			assertTrue(statistics.getDocumentsPerSecond()>0);
+			
+			//Second chunk violates unique index
+			List<ODocument> docs = new ArrayList<ODocument>();
+			for(int i=2000; i<2300; i++) docs.add(new ODocument("TestSaveAll").field("key", i==2150?0:i));
+			statistics = DBClosure.sudoSaveAll(docs, 100, true, progress::add);
+			assertEquals(3, progress.size());
+			assertEquals(200, statistics.getSavedDocuments());
+			assertEquals(100, statistics.getFailedDocuments());
+			assertEquals(1, statistics.getFailedChunks());
+			assertNotNull(statistics.getLastError());
+			
+			//Without transactions just failed document is not saved
+			docs.clear();
+			for(int i=3000; i<3300; i++) docs.add(new ODocument("TestSaveAll").field("key", i==3150?0:i));
+			statistics = DBClosure.sudoSaveAll(docs, 100, false, null);
+			assertEquals(299, statistics.getSavedDocuments());
+			assertEquals(1, statistics.getFailedDocuments());
+			assertEquals(1, statistics.getFailedChunks());
+			assertEquals(1549L, (long) DBClosure.sudo(db -> db.countClass("TestSaveAll")));
+			assertTrue(statistics.isFinished());
+			
+			try(DBClosure.SudoScope scope = DBClosure.openSudoScope())
+			{
+				DBClosure.sudoConsumer(db -> db.begin());
+				try
+				{
+					DBClosure.sudoSaveAll(docs, 100);
+					fail("Saving within active transaction of SudoScope should be rejected");
+				}
+				catch (IllegalStateException e)
+				{
+					//NOP
+				}
+				finally
+				{
+					DBClosure.sudoConsumer(db -> db.rollback());
+				}
+			}
+		}
+		finally
+		{
+			DBClosure.sudoConsumer(db -> db.getMetadata().getSchema().dropClass("TestSaveAll"));
+		}
+	}
+	
 	@Test
 	public void testConverters() throws Exception
 	{
@@ -1,6 +1,15 @@
 package ru.ydn.wicket.wicketorientdb;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.exception.OAcquireTimeoutException;
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.db.OrientDBConfig;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.impl.ODocument;
@@ -8,6 +17,7 @@ import com.orientechnologies.orient.core.sql.executor.OResultSet;
 import org.junit.ClassRule;
 import org.junit.Test;
 import ru.ydn.wicket.wicketorientdb.junit.WicketOrientDbTesterScope;
+import ru.ydn.wicket.wicketorientdb.utils.DBClosure;
 
 import static org.junit.Assert.*;
 
@@ -28,4 +38,82 @@ public class OrientDBSettingsTest {
 			assertEquals("HOOK", doc.field("name"));
 		}
 	}
+	
+	@Test
+	public void testPoolConfigAndStatistics()
+	{
+		IOrientDbSettings settings = wicket.getTester().getApplication().getOrientDbSettings();
+		OrientDBConfig defaultConfig = settings.getPoolConfig();
+		OrientDBConfig adminConfig = OrientDbSettings.newPoolConfig(1, 5, 1000);
+		assertEquals(5, adminConfig.getConfigurations().getValueAsInteger(OGlobalConfiguration.DB_POOL_MAX));
+		settings.setPoolConfig("admin", adminConfig);
+		try {
+			assertSame(adminConfig, settings.getPoolConfig("admin"));
+			assertSame(defaultConfig, settings.getPoolConfig("reader"));
+			new DBClosure<Void>() {
+				@Override
+				protected Void execute(ODatabaseSession db) {
+					assertEquals("admin", db.getUser().getName());
+					return null;
+				}
+			}.execute();
+			ODatabasePoolStatistics statistics = null;
+			for (ODatabasePoolStatistics stat : settings.getPoolStatistics()) {
+				if("admin".equals(stat.getUsername()) && settings.getDbName().equals(stat.getDbName())) statistics = stat;
+			}
+			assertNotNull(statistics);
+			assertTrue(statistics.getAcquiredCount()>0);
+			assertEquals(0, statistics.getTimeoutsCount());
+			assertTrue(statistics.getPoolSize()>0);
+			assertTrue(statistics.getIdleCount()>0);
+			assertTrue(statistics.getMaxWaitTime(TimeUnit.NANOSECONDS)>0);
+		} finally {
+			settings.setPoolConfig("admin", null);
+		}
+		assertSame(defaultConfig, settings.getPoolConfig("admin"));
+	}
+	
+	@Test
+	public void testPoolConfigIsEnforced()
+	{
+		IOrientDbSettings settings = wicket.getTester().getApplication().getOrientDbSettings();
+		//Config is applied to newly created pools only, so dedicated user is required
+		DBClosure.sudoConsumer(db -> db.getMetadata().getSecurity().createUser("poolTester", "poolTester", "reader"));
+		settings.setPoolConfig("poolTester", OrientDbSettings.newPoolConfig(1, 2, 200));
+		ODatabaseDocumentInternal current = ODatabaseRecordThreadLocal.instance().getIfDefined();
+		List<ODatabaseSession> sessions = new ArrayList<ODatabaseSession>();
+		try {
+			sessions.add(settings.acquireDatabaseSession(settings.getDbName(), "poolTester", "poolTester"));
+			sessions.add(settings.acquireDatabaseSession(settings.getDbName(), "poolTester", "poolTester"));
+			try {
+				sessions.add(settings.acquireDatabaseSession(settings.getDbName(), "poolTester", "poolTester"));
+				fail("OAcquireTimeoutException is expected: pool is exhausted");
+			} catch (OAcquireTimeoutException e) {
+				//expected
+			}
+			ODatabasePoolStatistics statistics = null;
+			for (ODatabasePoolStatistics stat : settings.getPoolStatistics()) {
+				if("poolTester".equals(stat.getUsername())) statistics = stat;
+			}
+			assertNotNull(statistics);
+			assertEquals(2, statistics.getAcquiredCount());
+			assertEquals(1, statistics.getTimeoutsCount());
+			int poolSize = statistics.getPoolSize();
+			if(poolSize>=0) assertEquals(2, poolSize);
+			int inUse = statistics.getInUseCount();
+			if(inUse>=0) assertEquals(2, inUse);
+		} finally {
+			for (ODatabaseSession session : sessions) {
+				session.activateOnCurrentThread();
+				session.close();
+			}
+			settings.setPoolConfig("poolTester", null);
+			settings.closePools();
+			for (ODatabasePoolStatistics stat : settings.getPoolStatistics()) {
+				assertNotEquals("poolTester", stat.getUsername());
+			}
+			ODatabaseRecordThreadLocal.instance().set(current);
+			DBClosure.sudoConsumer(db -> db.getMetadata().getSecurity().dropUser("poolTester"));
+		}
+	}
 }
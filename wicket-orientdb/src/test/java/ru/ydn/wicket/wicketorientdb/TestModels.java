@@ -2,25 +2,45 @@ package ru.ydn.wicket.wicketorientdb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.wicket.core.util.lang.WicketObjects;
 import org.apache.wicket.extensions.markup.html.repeater.data.sort.SortOrder;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.PropertyModel;
+import org.apache.wicket.request.cycle.RequestCycle;
 import org.junit.ClassRule;
+import org.junit.Ignore;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Iterables;
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
 import com.orientechnologies.orient.core.db.ODatabaseSession;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
 import com.orientechnologies.orient.core.index.OIndex;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OProperty;
@@ -28,16 +48,20 @@ import com.orientechnologies.orient.core.metadata.schema.OSchema;
 import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.metadata.security.OUser;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
 
+import ru.ydn.wicket.wicketorientdb.junit.WicketOrientDbTester.IterativeTestResult;
 import ru.ydn.wicket.wicketorientdb.junit.WicketOrientDbTesterScope;
 import ru.ydn.wicket.wicketorientdb.model.ListOIndexesModel;
 import ru.ydn.wicket.wicketorientdb.model.ListOPropertiesModel;
 import ru.ydn.wicket.wicketorientdb.model.OClassModel;
 import ru.ydn.wicket.wicketorientdb.model.OClassNamingModel;
 import ru.ydn.wicket.wicketorientdb.model.OClassesDataProvider;
+import ru.ydn.wicket.wicketorientdb.model.ODocumentIdentityMap;
 import ru.ydn.wicket.wicketorientdb.model.ODocumentLinksDataProvider;
 import ru.ydn.wicket.wicketorientdb.model.ODocumentMapWrapper;
 import ru.ydn.wicket.wicketorientdb.model.ODocumentModel;
+import ru.ydn.wicket.wicketorientdb.model.OIndexModel;
 import ru.ydn.wicket.wicketorientdb.model.OIndexesDataProvider;
 import ru.ydn.wicket.wicketorientdb.model.OPropertiesDataProvider;
 import ru.ydn.wicket.wicketorientdb.model.OPropertyModel;
@@ -45,9 +69,26 @@ import ru.ydn.wicket.wicketorientdb.model.OPropertyNamingModel;
 import ru.ydn.wicket.wicketorientdb.model.OQueryDataProvider;
 import ru.ydn.wicket.wicketorientdb.model.OQueryModel;
 import ru.ydn.wicket.wicketorientdb.model.SimpleNamingModel;
+import ru.ydn.wicket.wicketorientdb.utils.DBClosure;
+import ru.ydn.wicket.wicketorientdb.utils.ODocumentPrefetchListener;
+import ru.ydn.wicket.wicketorientdb.utils.OResultSetIterator;
+import ru.ydn.wicket.wicketorientdb.utils.OSchemaSnapshot;
+import ru.ydn.wicket.wicketorientdb.utils.query.CachedQueryCountStrategy;
+import ru.ydn.wicket.wicketorientdb.utils.query.EstimatedQueryCountStrategy;
+import ru.ydn.wicket.wicketorientdb.utils.query.ExactQueryCountStrategy;
+import ru.ydn.wicket.wicketorientdb.utils.query.IQueryManager;
+import ru.ydn.wicket.wicketorientdb.utils.query.ParsedQueryManager;
+import ru.ydn.wicket.wicketorientdb.utils.query.filter.FilterCriteriaManager;
+import ru.ydn.wicket.wicketorientdb.utils.query.filter.IFilterCriteriaManager;
+import ru.ydn.wicket.wicketorientdb.utils.query.QueryCountCache;
+import ru.ydn.wicket.wicketorientdb.utils.query.QueryParseCache;
+import ru.ydn.wicket.wicketorientdb.utils.query.QueryStatementCache;
+import ru.ydn.wicket.wicketorientdb.utils.query.StringQueryManager;
 
 public class TestModels
 {
+	private static final Logger LOG = LoggerFactory.getLogger(TestModels.class);
+	
 	@ClassRule
 	public static WicketOrientDbTesterScope wicket = new WicketOrientDbTesterScope("admin", "admin");
 	
@@ -213,6 +254,489 @@ public class TestModels
 		assertEquals(was, classA.count());
 	}
 	
+	@Test
+	public void testOQueryModelKeysetPaging()
+	{
+		ODatabaseSession db = wicket.getTester().getDatabaseSession();
+		OClass oClass = db.getMetadata().getSchema().createClass("TestKeysetPaging");
+		try {
+			for(int i=0; i<50; i++) {
+				ODocument doc = new ODocument(oClass);
+				//Null values of sort key should not be lost in any direction
+				doc.field("name", i%7==0 ? null : "name"+(i%7));
+				doc.save();
+			}
+			for(String sortBy : Arrays.asList("name", null)) {
+				for(boolean ascending : Arrays.asList(true, false)) {
+					OQueryModel<ODocument> queryModel = new OQueryModel<ODocument>("select from TestKeysetPaging").setKeysetPaging(true);
+					queryModel.setSortableParameter(sortBy);
+					queryModel.setAscending(ascending);
+					List<ODocument> expected = new ArrayList<ODocument>();
+					queryModel.iterator(0, 100, null).forEachRemaining(e -> expected.add((ODocument) e));
+					assertEquals(50, expected.size());
+					//Sequential pages
+					List<ODocument> actual = new ArrayList<ODocument>();
+					for(int first=0; first<50; first+=6) {
+						queryModel.iterator(first, 6, null).forEachRemaining(e -> actual.add((ODocument) e));
+						queryModel.detach();
+					}
+					assertEquals(expected, actual);
+					//Random jumps
+					assertPageEquals(expected, queryModel, 45, 6);
+					assertPageEquals(expected, queryModel, 13, 6);
+					OQueryModel<ODocument> freshModel = new OQueryModel<ODocument>("select from TestKeysetPaging").setKeysetPaging(true);
+					freshModel.setSortableParameter(sortBy);
+					freshModel.setAscending(ascending);
+					assertPageEquals(expected, freshModel, 30, 6);
+					assertPageEquals(expected, freshModel, 36, 6);
+				}
+			}
+		} finally {
+			db.command("delete from TestKeysetPaging").close();
+			db.getMetadata().getSchema().dropClass("TestKeysetPaging");
+		}
+	}
+	
+	private static void assertPageEquals(List<ODocument> expected, OQueryModel<ODocument> queryModel, int first, int count) {
+		List<ODocument> page = new ArrayList<ODocument>();
+		queryModel.iterator(first, count, null).forEachRemaining(e -> page.add((ODocument) e));
+		assertEquals(expected.subList(first, Math.min(first+count, expected.size())), page);
+	}
+	
+	@Test
+	public void testOQueryModelStreamingIterator()
+	{
+		OQueryModel<ODocument> queryModel = new OQueryModel<ODocument>("select from ClassA");
+		Iterator<ODocument> it = queryModel.iterator(0, 10, null);
+		assertTrue(it instanceof OResultSetIterator);
+		OResultSetIterator<ODocument> rsIt = (OResultSetIterator<ODocument>) it;
+		assertTrue(rsIt.isOpen());
+		int read = 0;
+		while(it.hasNext()) {
+			assertNotNull(it.next());
+			read++;
+		}
+		assertEquals(queryModel.size(), read);
+		assertFalse(rsIt.isOpen());
+		
+		it = queryModel.iterator(0, 10, null);
+		assertTrue(it.hasNext());
+		OResultSetIterator.closeQuietly(it);
+		assertFalse(((OResultSetIterator<ODocument>) it).isOpen());
+		assertFalse(it.hasNext());
+		
+		RequestCycle cycle = wicket.getTester().getRequestCycle();
+		it = queryModel.iterator(0, 10, null);
+		int listeners = Iterables.size(cycle.getListeners());
+		Iterator<ODocument> notClosed = queryModel.iterator(0, 10, null);
+		assertTrue(notClosed.hasNext());
+		assertEquals(listeners, Iterables.size(cycle.getListeners()));
+		cycle.getListeners().onDetach(cycle);
+		assertFalse(((OResultSetIterator<ODocument>) it).isOpen());
+		assertFalse(((OResultSetIterator<ODocument>) notClosed).isOpen());
+	}
+	
+	@Test
+	@Ignore //Manual benchmark: requires significant time to populate data
+	public void benchmarkOQueryModelKeysetPaging()
+	{
+		final int total = 1000000;
+		final int pageSize = 100;
+		final long lastPage = total/pageSize-1;
+		ODatabaseSession db = wicket.getTester().getDatabaseSession();
+		OClass oClass = db.getMetadata().getSchema().createClass("BenchmarkKeysetPaging");
+		try {
+			db.declareIntent(new OIntentMassiveInsert());
+			for(int i=0; i<total; i++) {
+				new ODocument(oClass).field("num", i).save();
+			}
+			db.declareIntent(null);
+			OQueryModel<ODocument> skipModel = new OQueryModel<ODocument>("select from BenchmarkKeysetPaging");
+			skipModel.setSortableParameter("@rid");
+			IterativeTestResult<Long, Integer> skipResult = wicket.getTester().iterativelyTest(Arrays.asList(0L, lastPage), 
+					page -> {skipModel.iterator(page*pageSize, pageSize, null).forEachRemaining(e -> {}); return 0;});
+			skipResult.log("SKIP: page 1 and page "+(lastPage+1));
+			
+			OQueryModel<ODocument> keysetModel = new OQueryModel<ODocument>("select from BenchmarkKeysetPaging").setKeysetPaging(true);
+			List<Long> pages = new ArrayList<Long>();
+			for(long i=0; i<=lastPage; i++) pages.add(i);
+			IterativeTestResult<Long, Integer> keysetResult = wicket.getTester().iterativelyTest(pages, 
+					page -> {keysetModel.iterator(page*pageSize, pageSize, null).forEachRemaining(e -> {}); return 0;});
+			keysetResult.log("KEYSET: sequential pages from 1 till "+(lastPage+1));
+			long start = System.currentTimeMillis();
+			keysetModel.iterator(lastPage*pageSize, pageSize, null).forEachRemaining(e -> {});
+			LOG.info("KEYSET: page "+(lastPage+1)+" took "+(System.currentTimeMillis()-start)+"ms");
+		} finally {
+			db.command("delete from BenchmarkKeysetPaging").close();
+			db.getMetadata().getSchema().dropClass("BenchmarkKeysetPaging");
+		}
+	}
+	
+	@Test
+	public void testParsedQueryManager()
+	{
+		ParsedQueryManager nested = new ParsedQueryManager("select from (select from ClassA where name = 'a')");
+		assertEquals("SELECT FROM (SELECT FROM ClassA WHERE name = 'a') ORDER BY name DESC, @rid DESC SKIP :querySkip LIMIT :queryLimit",
+				nested.prepareKeysetSql(true, true, "name", false, false));
+		assertEquals("SELECT FROM (SELECT FROM ClassA WHERE name = 'a') ORDER BY name DESC SKIP 10 LIMIT 5",
+				nested.prepareSql(10, 5, "name", false));
+		ParsedQueryManager withOr = new ParsedQueryManager("select from ClassA where name = 'a' or name = 'b'");
+		assertEquals("SELECT count(*) AS count FROM ClassA WHERE name = 'a' OR name = 'b'", withOr.getCountSql());
+		assertEquals("SELECT FROM ClassA WHERE ((name = 'a' OR name = 'b' ) AND (@rid > :keysetRid ) ) ORDER BY @rid ASC LIMIT :queryLimit",
+				withOr.prepareKeysetSql(false, true, null, true, true));
+		IFilterCriteriaManager filter = new FilterCriteriaManager("c");
+		filter.addFilterCriteria(filter.createEqualsFilterCriteria(Model.of(3), Model.of(true)));
+		withOr.addFilterCriteriaManager("c", filter);
+		assertEquals("SELECT FROM ClassA WHERE ((name = 'a' OR name = 'b' ) AND (c = :equalsc ) )", withOr.getSql());
+		assertEquals("SELECT FROM ClassA WHERE ((((name = 'a' OR name = 'b' ) AND (c = :equalsc ) ) ) AND (name > :keysetSortKey OR (name = :keysetSortKey AND @rid > :keysetRid ) ) )"
+				+ " ORDER BY name ASC, @rid ASC LIMIT :queryLimit", withOr.prepareKeysetSql(false, true, "name", true, true));
+		withOr.clearFilterCriteriaManagers();
+		assertEquals("SELECT FROM ClassA WHERE (name < :keysetSortKey OR (name = :keysetSortKey AND @rid < :keysetRid ) OR name is null )"
+				+ " ORDER BY name DESC, @rid DESC LIMIT :queryLimit", new ParsedQueryManager("select from ClassA").prepareKeysetSql(false, true, "name", false, true));
+		assertEquals("select from ClassA WHERE (name < :keysetSortKey OR (name = :keysetSortKey AND @rid < :keysetRid) OR name IS NULL)"
+				+ " ORDER BY name desc, @rid desc LIMIT :queryLimit", new StringQueryManager("select from ClassA").prepareKeysetSql(false, true, "name", false, true));
+		assertEquals("ClassA", withOr.getTargetClassName());
+		assertFalse(withOr.isPlainClassScan());
+		assertTrue(new ParsedQueryManager("select * from ClassA").isPlainClassScan());
+		ParsedQueryManager expand = new ParsedQueryManager("select expand(other) from ClassA");
+		assertEquals(null, expand.getTargetClassName());
+		assertEquals("SELECT sum(other.size()) AS count FROM ClassA", expand.getCountSql());
+		assertEquals("SELECT FROM (SELECT expand(other) FROM ClassA ORDER BY name ASC) SKIP 0 LIMIT 3", expand.prepareSql(0, 3, "name", true));
+		long statementMisses = QueryStatementCache.get().getMissCount();
+		assertEquals("SELECT FROM (SELECT expand(other) FROM ClassA ORDER BY name ASC) SKIP 3 LIMIT 3", expand.prepareSql(3, 3, "name", true));
+		assertEquals("SELECT FROM (SELECT expand(other) FROM ClassA ORDER BY name ASC) SKIP 6 LIMIT 5", expand.prepareSql(6, 5, "name", true));
+		assertEquals(statementMisses, QueryStatementCache.get().getMissCount());
+		long parseMisses = QueryParseCache.get().getMissCount();
+		assertEquals("SELECT FROM (SELECT expand(other) FROM ClassA ORDER BY name ASC) SKIP 9 LIMIT 5", expand.prepareSql(9, 5, "name", true));
+		assertEquals(parseMisses, QueryParseCache.get().getMissCount());
+		
+		QueryParseCache cache = QueryParseCache.get();
+		long misses = cache.getMissCount();
+		long hits = cache.getHitCount();
+		withOr.getSql();
+		new ParsedQueryManager("select from ClassA where name = 'a' or name = 'b'").getSql();
+		assertEquals(misses, cache.getMissCount());
+		assertTrue(cache.getHitCount()>hits);
+		
+		OQueryModel<ODocument> queryModel = new OQueryModel<ODocument>(new ParsedQueryManager("select from (select from ClassA where name = :name)"), null);
+		queryModel.setParameter("name", Model.of("doc1"));
+		queryModel.setSort("name", SortOrder.ASCENDING);
+		assertEquals(1, queryModel.size());
+		assertEquals(1, queryModel.getObject().size());
+	}
+	
+	@Test
+	public void testOQueryModelStatementReuse()
+	{
+		OQueryModel<ODocument> queryModel = new OQueryModel<ODocument>("select from ClassA");
+		queryModel.setSort("name", SortOrder.ASCENDING);
+		List<ODocument> all = queryModel.getObject();
+		String pagedSql = new ParsedQueryManager("select from ClassA").preparePagedSql(true, true, "name", true);
+		assertEquals("SELECT FROM ClassA ORDER BY name ASC SKIP :querySkip LIMIT :queryLimit", pagedSql);
+		//Paged statement is cached upon first page
+		queryModel.iterator(0, 1, null);
+		QueryStatementCache cache = QueryStatementCache.get();
+		long misses = cache.getMissCount();
+		long hits = cache.getHitCount();
+		for(int first=0; first<all.size(); first++) {
+			List<ODocument> page = new ArrayList<ODocument>();
+			queryModel.iterator(first, 1, null).forEachRemaining(e -> page.add((ODocument) e));
+			assertEquals(all.subList(first, first+1), page);
+		}
+		assertEquals(misses, cache.getMissCount());
+		assertEquals(hits+all.size(), cache.getHitCount());
+	}
+	
+	@Test
+	public void testOQueryDataProviderCombinedPaging()
+	{
+		final AtomicInteger queries = new AtomicInteger();
+		OQueryModel<ODocument> model = new OQueryModel<ODocument>("select from ClassA where name <> :name") {
+			@Override
+			protected OResultSet query(ODatabaseSession db, String sql, Map<String, Object> params) {
+				queries.incrementAndGet();
+				return super.query(db, sql, params);
+			}
+		};
+		model.setParameter("name", Model.of("doc2"));
+		model.setCountStrategy(new ExactQueryCountStrategy() {
+			@Override
+			public long count(ODatabaseSession db, IQueryManager queryManager, Map<String, Object> params) {
+				queries.incrementAndGet();
+				return super.count(db, queryManager, params);
+			}
+		});
+		OQueryDataProvider<ODocument> provider = new OQueryDataProvider<ODocument>(model);
+		provider.setSort("name", SortOrder.ASCENDING);
+		List<ODocument> expected = renderTable(provider, 1, 1);
+		assertEquals(2, queries.getAndSet(0));
+		
+		provider.setCombinedPaging(true);
+		assertEquals(expected, renderTable(provider, 1, 1));
+		assertEquals(2, queries.getAndSet(0));
+		assertEquals(expected, renderTable(provider, 1, 1));
+		assertEquals(1, queries.getAndSet(0));
+		//Page was changed: prediction fails, but size is already known
+		List<ODocument> firstPage = renderTable(provider, 0, 1);
+		assertEquals(2, queries.getAndSet(0));
+		assertEquals(firstPage, renderTable(provider, 0, 1));
+		assertEquals(1, queries.getAndSet(0));
+		provider.setSort("name", SortOrder.DESCENDING);
+		renderTable(provider, 0, 1);
+		assertEquals(1, queries.getAndSet(0));
+	}
+	
+	private static List<ODocument> renderTable(OQueryDataProvider<ODocument> provider, long first, long count) {
+		assertEquals(2, provider.size());
+		List<ODocument> page = new ArrayList<ODocument>();
+		provider.iterator(first, count).forEachRemaining(page::add);
+		assertEquals(2, provider.size());
+		provider.detach();
+		return page;
+	}
+	
+	@Test
+	public void testODocumentIdentityMap()
+	{
+		RequestCycle cycle = wicket.getTester().getRequestCycle();
+		List<ODocument> docs = new OQueryModel<ODocument>("select from ClassA").getObject();
+		List<ODocumentModel> models = new ArrayList<ODocumentModel>();
+		for(int i=0; i<2; i++) {
+			for(ODocument doc : docs) {
+				ODocumentModel model = new ODocumentModel(doc);
+				model.detach();
+				models.add(model);
+			}
+		}
+		ODocumentIdentityMap.clear(cycle);
+		assertNull(ODocumentIdentityMap.get());
+		ODocumentIdentityMap map = ODocumentIdentityMap.enable();
+		assertNotNull(map);
+		assertTrue(map == ODocumentIdentityMap.get());
+		for(ODocumentModel model : models) map.register(model.getIdentity());
+		for(int i=0; i<models.size(); i++) {
+			ODocument doc = models.get(i).getObject();
+			assertEquals(docs.get(i % docs.size()).getIdentity(), doc.getIdentity());
+			if(i>=docs.size()) assertTrue(doc == models.get(i-docs.size()).getObject());
+		}
+		assertEquals(1, map.getQueries());
+		assertEquals(models.size()-1, map.getLoadsAvoided());
+		
+		ODatabaseSession db = wicket.getTester().getDatabaseSession();
+		ODocument newDoc = new ODocument("ClassA").field("name", "evicted");
+		newDoc.save();
+		db.commit();
+		db.begin();
+		ODocumentModel newModel = new ODocumentModel(newDoc);
+		newModel.detach();
+		assertEquals(newDoc.getIdentity(), newModel.getObject().getIdentity());
+		assertEquals(2, map.getQueries());
+		assertEquals(docs.size()+1, map.size());
+		newDoc.delete();
+		assertEquals(docs.size(), map.size());
+		db.commit();
+		db.begin();
+		ODocumentIdentityMap.clear(cycle);
+		assertEquals(null, ODocumentIdentityMap.lookup(cycle));
+		assertNull(ODocumentIdentityMap.get());
+	}
+	
+	@Test
+	public void testODocumentPrefetch()
+	{
+		RequestCycle cycle = wicket.getTester().getRequestCycle();
+		List<ODocument> docs = new OQueryModel<ODocument>("select from ClassA").getObject();
+		WebMarkupContainer container = new WebMarkupContainer("container");
+		List<IModel<?>> models = new ArrayList<IModel<?>>();
+		for(ODocument doc : docs) {
+			ODocumentModel docModel = new ODocumentModel(doc);
+			docModel.detach();
+			IModel<?> nameModel = new PropertyModel<String>(docModel, "name");
+			container.add(new Label("doc"+models.size(), docModel));
+			models.add(docModel);
+			container.add(new Label("name"+models.size(), nameModel));
+			models.add(nameModel);
+		}
+		WebMarkupContainer inheriting = new WebMarkupContainer("inheriting", new ODocumentModel(docs.get(0)));
+		inheriting.getDefaultModel().detach();
+		inheriting.add(new Label("name"));
+		container.add(inheriting);
+		assertEquals(docs.size(), ODocumentPrefetchListener.collect(container).size());
+		ODocumentIdentityMap.clear(cycle);
+		ODocumentPrefetchListener.prefetch(container);
+		ODocumentIdentityMap map = ODocumentIdentityMap.get();
+		assertNotNull(map);
+		assertEquals(1, map.getQueries());
+		assertEquals(docs.size(), map.size());
+		for(IModel<?> model : models) assertNotNull(model.getObject());
+		assertEquals(1, map.getQueries());
+		assertEquals(docs.size(), map.getLoadsAvoided());
+		ODocumentIdentityMap.clear(cycle);
+	}
+	
+	@Test
+	public void testCompactModelSerialization() throws IOException
+	{
+		ODocument doc = new OQueryModel<ODocument>("select from ClassA").getObject().get(0);
+		ODocumentModel docModel = new ODocumentModel(doc);
+		docModel.detach();
+		ODocumentModel restored = WicketObjects.cloneObject(docModel);
+		assertEquals(docModel, restored);
+		assertEquals(doc.getIdentity(), restored.getIdentity());
+		//Positions beyond 48 bits and temporary identities should survive serialization too
+		for(ORID rid : Arrays.<ORID>asList(new ORecordId(doc.getIdentity().getClusterId(), (1L << 50) + 1),
+											new ORecordId(doc.getIdentity().getClusterId(), Long.MAX_VALUE), new ORecordId(-1, -2))) {
+			//Records don't exist, so model is not detached to keep the identity
+			assertEquals(rid, WicketObjects.cloneObject(new ODocumentModel(rid)).getIdentity());
+		}
+		
+		ODocument newDoc = new ODocument("ClassA");
+		newDoc.field("name", "notSaved");
+		ODocumentModel newDocModel = new ODocumentModel(newDoc);
+		newDocModel.detach();
+		ODocument restoredDoc = WicketObjects.cloneObject(newDocModel).getObject();
+		assertEquals("ClassA", restoredDoc.getClassName());
+		assertEquals("notSaved", restoredDoc.field("name"));
+		assertTrue(restoredDoc.isDirty());
+		assertFalse(restoredDoc.getIdentity().isPersistent());
+		
+		assertEquals(new OClassModel("ClassA"), WicketObjects.cloneObject(new OClassModel("ClassA")));
+		OPropertyModel propertyModel = new OPropertyModel("ClassA", "name");
+		assertEquals(propertyModel, WicketObjects.cloneObject(propertyModel));
+		assertEquals(propertyModel.getObject(), WicketObjects.cloneObject(propertyModel).getObject());
+		OClassModel customNameModel = new OClassModel((IModel<String>) () -> "ClassB");
+		assertEquals("ClassB", WicketObjects.cloneObject(customNameModel).getObject().getName());
+		
+		List<Serializable> legacy = new ArrayList<Serializable>();
+		List<Serializable> compact = new ArrayList<Serializable>();
+		for(int i=0; i<1000; i++) {
+			ORID rid = new ORecordId(doc.getIdentity().getClusterId(), i);
+			legacy.add(new LegacyODocumentModelState(rid));
+			ODocumentModel model = new ODocumentModel(rid);
+			model.detach();
+			compact.add(model);
+		}
+		long start = System.nanoTime();
+		int legacySize = serializedSize(legacy);
+		long legacyTime = System.nanoTime()-start;
+		start = System.nanoTime();
+		int compactSize = serializedSize(compact);
+		long compactTime = System.nanoTime()-start;
+		LOG.info("1000 document models: legacy state "+legacySize+" bytes in "+legacyTime/1000+"us, compact "
+					+compactSize+" bytes in "+compactTime/1000+"us");
+		assertTrue(compactSize<legacySize);
+	}
+	
+	/**
+	 * State of {@link ODocumentModel} as it was written by default java serialization
+	 */
+	private static class LegacyODocumentModelState implements Serializable {
+		private static final long serialVersionUID = 1L;
+		@SuppressWarnings("unused")
+		private ORID orid;
+		@SuppressWarnings("unused")
+		private ODocument savedDocument;
+		@SuppressWarnings("unused")
+		private boolean autoSave;
+		
+		public LegacyODocumentModelState(ORID orid) {
+			this.orid = orid;
+		}
+	}
+	
+	private static int serializedSize(Object object) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try(ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(object);
+		}
+		return baos.size();
+	}
+	
+	@Test
+	public void testOSchemaSnapshot()
+	{
+		ODatabaseDocumentInternal db = (ODatabaseDocumentInternal) wicket.getTester().getDatabaseSession();
+		OSchemaSnapshot snapshot = OSchemaSnapshot.get(db);
+		assertTrue(snapshot == OSchemaSnapshot.get(db));
+		assertTrue(snapshot.getClass(db, "classa") == db.getMetadata().getSchema().getClass("ClassA"));
+		assertNotNull(snapshot.getProperties().get("classa\nname"));
+		OClass oClass = db.getMetadata().getSchema().createClass("TestSchemaSnapshot");
+		try {
+			OSchemaSnapshot changed = OSchemaSnapshot.get(db);
+			assertFalse(snapshot == changed);
+			assertTrue(oClass == changed.getClasses().get("testschemasnapshot"));
+			assertModelObjectEquals(oClass, new OClassModel("TestSchemaSnapshot"));
+			OProperty property = oClass.createProperty("name", OType.STRING);
+			assertModelObjectEquals(property, new OPropertyModel("TestSchemaSnapshot", "name"));
+			changed = OSchemaSnapshot.get(db);
+			OIndex index = oClass.createIndex("TestSchemaSnapshot.name", OClass.INDEX_TYPE.NOTUNIQUE, "name");
+			assertFalse(changed == OSchemaSnapshot.get(db));
+			assertNotNull(OSchemaSnapshot.get(db).getIndexes().get("TestSchemaSnapshot.name"));
+			assertEquals(index.getName(), new OIndexModel(oClass, "TestSchemaSnapshot.name").getObject().getName());
+			changed = OSchemaSnapshot.get(db);
+			assertTrue(changed == OSchemaSnapshot.get(db));
+		} finally {
+			db.getMetadata().getSchema().dropClass("TestSchemaSnapshot");
+		}
+		assertEquals(null, OSchemaSnapshot.get(db).getClasses().get("testschemasnapshot"));
+	}
+	
+	@Test
+	public void testOQueryModelCountStrategies()
+	{
+		ODatabaseSession db = wicket.getTester().getDatabaseSession();
+		OClass oClass = db.getMetadata().getSchema().createClass("TestCountStrategies");
+		try {
+			for(int i=0; i<5; i++) {
+				new ODocument(oClass).field("name", "name"+i).save();
+			}
+			assertTrue(new StringQueryManager("select from TestCountStrategies").isPlainClassScan());
+			assertFalse(new StringQueryManager("select from TestCountStrategies where name = 'a'").isPlainClassScan());
+			assertEquals("TestCountStrategies", new StringQueryManager("select from TestCountStrategies where name = 'a'").getTargetClassName());
+			assertEquals(null, new StringQueryManager("select expand(other) from TestCountStrategies").getTargetClassName());
+			
+			OQueryModel<ODocument> estimatedModel = new OQueryModel<ODocument>("select from TestCountStrategies")
+														.setCountStrategy(EstimatedQueryCountStrategy.INSTANCE);
+			assertEquals(5, estimatedModel.size());
+			OQueryModel<ODocument> estimatedFilteredModel = new OQueryModel<ODocument>("select from TestCountStrategies where name = 'name1'")
+														.setCountStrategy(EstimatedQueryCountStrategy.INSTANCE);
+			assertEquals(1, estimatedFilteredModel.size());
+			
+			String sql = "select from TestCountStrategies where name <> :name";
+			OQueryModel<ODocument> cachedModel = new OQueryModel<ODocument>(sql)
+														.setCountStrategy(new CachedQueryCountStrategy(1, TimeUnit.HOURS));
+			cachedModel.setParameter("name", Model.of("name1"));
+			assertEquals(4, cachedModel.size());
+			QueryCountCache cache = QueryCountCache.get();
+			String key = QueryCountCache.toKey(db, new StringQueryManager(sql).getCountSql(), Collections.singletonMap("name", "name1"));
+			assertEquals(Long.valueOf(4), cache.getCount(key, "TestCountStrategies", TimeUnit.HOURS.toMillis(1)));
+			//Counts are not shared between users: record level security might be applied
+			String readerKey = new DBClosure<String>("reader", "reader") {
+				@Override
+				protected String execute(ODatabaseSession db) {
+					return QueryCountCache.toKey(db, new StringQueryManager(sql).getCountSql(), Collections.singletonMap("name", "name1"));
+				}
+			}.execute();
+			assertNotEquals(key, readerKey);
+			assertEquals(null, cache.getCount(readerKey, "TestCountStrategies", TimeUnit.HOURS.toMillis(1)));
+			cachedModel.detach();
+			assertEquals(4, cachedModel.size());
+			
+			ODocument doc = new ODocument(oClass).field("name", "name5").save();
+			assertEquals(null, cache.getCount(key, "TestCountStrategies", TimeUnit.HOURS.toMillis(1)));
+			cachedModel.detach();
+			assertEquals(5, cachedModel.size());
+			doc.delete();
+			cachedModel.detach();
+			assertEquals(4, cachedModel.size());
+			estimatedModel.detach();
+			assertEquals(5, estimatedModel.size());
+		} finally {
+			db.command("delete from TestCountStrategies").close();
+			db.getMetadata().getSchema().dropClass("TestCountStrategies");
+		}
+	}
+	
 	@Test
 	public void testNamingModel()
 	{
@@ -7,10 +7,13 @@ import com.orientechnologies.orient.core.hook.ORecordHook;
 import org.junit.ClassRule;
 import org.junit.Test;
 import ru.ydn.wicket.wicketorientdb.junit.WicketOrientDbTesterScope;
+import ru.ydn.wicket.wicketorientdb.utils.DBClosure;
 
 import java.util.List;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TestRegisterHooks {
@@ -47,6 +50,35 @@ public class TestRegisterHooks {
         assertRegisteredHook(db2, RegisterHook.class);
     }
 
+    @Test
+    public void testHooksAreNotReregisteredInPooledDatabase() {
+        IOrientDbSettings settings = wicket.getTester().getApplication().getOrientDbSettings();
+        settings.addORecordHooks(RegisterHook.class);
+        long version = settings.getORecordHooksVersion();
+
+        ORecordHook hook = DBClosure.sudo(db -> getRegisteredHook(db, RegisterHook.class));
+        assertNotNull(hook);
+        assertSame(hook, DBClosure.sudo(db -> getRegisteredHook(db, RegisterHook.class)));
+
+        settings.addORecordHooks(DefaultConstructorHook.class);
+        try {
+            assertTrue(settings.getORecordHooksVersion() > version);
+            DBClosure.sudoConsumer(db -> {
+                assertRegisteredHook(db, RegisterHook.class);
+                assertRegisteredHook(db, DefaultConstructorHook.class);
+            });
+        } finally {
+            settings.removeORecordHooks(DefaultConstructorHook.class);
+        }
+    }
+
+    private ORecordHook getRegisteredHook(ODatabaseDocument db, Class<? extends ORecordHook> hookClass) {
+        for (ORecordHook hook : db.getHooks().keySet()) {
+            if (hookClass.equals(hook.getClass())) return hook;
+        }
+        return null;
+    }
+
     private void assertRegisteredHook(ODatabaseDocument db, Class<? extends ORecordHook> hookClass) {
         List<Class<? extends ORecordHook>> registeredHooks = db.getHooks().keySet().stream()
                 .map(ORecordHook::getClass).collect(Collectors.toList());
@@ -65,4 +97,11 @@ public class TestRegisterHooks {
             return DISTRIBUTED_EXECUTION_MODE.SOURCE_NODE;
         }
     }
+
+    public static class DefaultConstructorHook extends ODocumentHookAbstract {
+        @Override
+        public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
+            return DISTRIBUTED_EXECUTION_MODE.SOURCE_NODE;
+        }
+    }
 }
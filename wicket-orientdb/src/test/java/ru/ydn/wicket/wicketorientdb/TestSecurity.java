@@ -1,13 +1,57 @@
 package ru.ydn.wicket.wicketorientdb;
 
+import org.apache.wicket.Component;
+import org.apache.wicket.authorization.Action;
 import org.apache.wicket.authorization.UnauthorizedInstantiationException;
 import org.apache.wicket.authroles.authentication.pages.SignInPage;
+import org.apache.wicket.authroles.authorization.strategies.role.Roles;
+import org.apache.wicket.core.request.handler.ListenerRequestHandler;
+import org.apache.wicket.core.request.handler.PageAndComponentProvider;
+import org.apache.wicket.core.request.handler.PageProvider;
+import org.apache.wicket.core.request.handler.RenderPageRequestHandler;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.handler.resource.ResourceReferenceRequestHandler;
+import org.apache.wicket.request.resource.ByteArrayResource;
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.request.resource.ResourceReference;
 import org.junit.After;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.ODatabaseThreadLocalFactory;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.exception.OSecurityAccessException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.security.ORole;
+import com.orientechnologies.orient.core.metadata.security.ORule;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
 import ru.ydn.wicket.wicketorientdb.junit.WicketOrientDbTester;
 import ru.ydn.wicket.wicketorientdb.junit.WicketOrientDbTesterScope;
+import ru.ydn.wicket.wicketorientdb.model.ODocumentModel;
+import ru.ydn.wicket.wicketorientdb.security.ODocumentAccessCache;
+import ru.ydn.wicket.wicketorientdb.security.OPermissionDecisionCache;
+import ru.ydn.wicket.wicketorientdb.security.OSecurityHelper;
+import ru.ydn.wicket.wicketorientdb.security.OrientPermission;
+import ru.ydn.wicket.wicketorientdb.security.OrientResourceAuthorizationStrategy;
+import ru.ydn.wicket.wicketorientdb.security.OrientResourceRequirement;
+import ru.ydn.wicket.wicketorientdb.security.RequiredOrientResource;
+import ru.ydn.wicket.wicketorientdb.security.VerifiedCredentialsCache;
+import ru.ydn.wicket.wicketorientdb.utils.DBClosure;
 import ru.ydn.wicket.wicketorientdb.web.DynamicSecuredPage;
 import ru.ydn.wicket.wicketorientdb.web.OrientDbTestPage;
 import ru.ydn.wicket.wicketorientdb.web.StaticSecuredPage;
@@ -132,4 +176,450 @@ public class TestSecurity
 		tester.assertRenderedPage(DynamicSecuredPage.class);
 		tester.signOut();
 	}
+	
+	@Test
+	public void testPermissionDecisionCache()
+	{
+		WicketOrientDbTester tester = wicket.getTester();
+		OrientDbWebApplication app = tester.getApplication();
+		assertTrue(tester.signIn("reader", "reader"));
+		OPermissionDecisionCache cache = OPermissionDecisionCache.get();
+		long misses = cache.getMissCount();
+		long hits = cache.getHitCount();
+		assertTrue(app.checkResource(ORule.ResourceGeneric.CLASS, "ClassA", ORole.PERMISSION_READ));
+		assertTrue(app.checkResource(ORule.ResourceGeneric.CLASS, "ClassA", ORole.PERMISSION_READ));
+		assertEquals(misses+1, cache.getMissCount());
+		assertEquals(hits+1, cache.getHitCount());
+		
+		long version = OPermissionDecisionCache.getSecurityVersion();
+		DBClosure.sudoConsumer(db -> db.getMetadata().getSecurity().getRole("reader")
+											.revoke(ORule.ResourceGeneric.CLASS, "ClassA", ORole.PERMISSION_READ).save());
+		try {
+			assertTrue(OPermissionDecisionCache.getSecurityVersion()>version);
+			tester.signOut();
+			assertTrue(tester.signIn("reader", "reader"));
+			assertFalse(app.checkResource(ORule.ResourceGeneric.CLASS, "ClassA", ORole.PERMISSION_READ));
+			assertEquals(misses+2, cache.getMissCount());
+		} finally {
+			DBClosure.sudoConsumer(db -> db.getMetadata().getSecurity().getRole("reader")
+											.grant(ORule.ResourceGeneric.CLASS, "ClassA", ORole.PERMISSION_READ).save());
+		}
+		tester.signOut();
+		assertTrue(tester.signIn("reader", "reader"));
+		assertTrue(app.checkResource(ORule.ResourceGeneric.CLASS, "ClassA", ORole.PERMISSION_READ));
+	}
+	
+	@Test
+	public void testOrientResourceRequirements()
+	{
+		OrientResourceRequirement requirement = OrientResourceRequirement.parse("CLASS.ClassA:ENABLE");
+		assertEquals(ORule.ResourceGeneric.CLASS, requirement.getResource());
+		assertEquals("ClassA", requirement.getSpecific());
+		assertTrue(requirement.isApplicableFor(Component.ENABLE));
+		assertFalse(requirement.isApplicableFor(Component.RENDER));
+		assertTrue(requirement == OrientResourceRequirement.parse("CLASS.ClassA:ENABLE"));
+		requirement = OrientResourceRequirement.parse("SCHEMA");
+		assertEquals(ORule.ResourceGeneric.SCHEMA, requirement.getResource());
+		assertNull(requirement.getSpecific());
+		assertTrue(requirement.isApplicableFor(Component.RENDER));
+		
+		OrientResourceAuthorizationStrategy strategy = new OrientResourceAuthorizationStrategy(wicket.getTester().getApplication());
+		OrientResourceRequirement[] requirements = strategy.getRequirements(StaticSecuredPage.class);
+		assertEquals(strategy.getRequiredOrientResources(StaticSecuredPage.class).length, requirements.length);
+		assertTrue(requirements.length>0);
+		assertTrue(requirements == strategy.getRequirements(StaticSecuredPage.class));
+		assertTrue(requirements[0].getSource() == strategy.getRequiredOrientResources(StaticSecuredPage.class)[0]);
+		assertNull(OrientResourceRequirement.parse("SCHEMA").getSource());
+		
+		final List<RequiredOrientResource> checked = new ArrayList<RequiredOrientResource>();
+		OrientResourceAuthorizationStrategy customized = new OrientResourceAuthorizationStrategy(wicket.getTester().getApplication()) {
+			@Override
+			public boolean checkResource(RequiredOrientResource resource, Action action) {
+				checked.add(resource);
+				return false;
+			}
+		};
+		assertFalse(customized.isInstantiationAuthorized(StaticSecuredPage.class));
+		assertEquals(1, checked.size());
+	}
+	
+	@Test
+	public void testODocumentAccessCache()
+	{
+		WicketOrientDbTester tester = wicket.getTester();
+		List<ORID> rids = DBClosure.sudo(db -> {
+			OClass oClass = db.getMetadata().getSchema().createClass("TestAccessCache", db.getMetadata().getSchema().getClass("ORestricted"));
+			ODocument readerRole = db.getMetadata().getSecurity().getRole("reader").getDocument();
+			ODocument admin = db.getMetadata().getSecurity().getUser("admin").getDocument();
+			List<ORID> ret = new ArrayList<ORID>();
+			ret.add(new ODocument(oClass).field("_allowRead", Arrays.asList(readerRole)).save().getIdentity());
+			ret.add(new ODocument(oClass).field("_allow", Arrays.asList(admin)).save().getIdentity());
+			return ret;
+		});
+		try {
+			List<ODocument> docs = new ArrayList<ODocument>();
+			for (ORID rid : rids) docs.add(DBClosure.sudoLoad(rid));
+			assertTrue(tester.signIn("reader", "reader"));
+			ODocumentAccessCache cache = ODocumentAccessCache.get();
+			cache.evaluate(docs, OrientPermission.READ, OrientPermission.UPDATE);
+			assertEquals(docs.size()*2, cache.getEvaluations());
+			for (ODocument doc : docs) {
+				assertEquals(OSecurityHelper.isAllowed(doc, OrientPermission.READ), ODocumentAccessCache.isAllowedCached(doc, OrientPermission.READ));
+				assertEquals(OSecurityHelper.isAllowed(doc, OrientPermission.UPDATE), ODocumentAccessCache.isAllowedCached(doc, OrientPermission.UPDATE));
+			}
+			assertTrue(cache.isRecordAllowed(docs.get(0), OrientPermission.READ));
+			assertFalse(cache.isRecordAllowed(docs.get(1), OrientPermission.READ));
+			assertEquals(docs.size()*2, cache.getEvaluations());
+			assertTrue(cache == ODocumentAccessCache.get());
+		} finally {
+			DBClosure.sudoConsumer(db -> {
+				db.command("delete from TestAccessCache").close();
+				db.getMetadata().getSchema().dropClass("TestAccessCache");
+			});
+		}
+	}
+	
+	@Test
+	public void testCachedRoles()
+	{
+		WicketOrientDbTester tester = wicket.getTester();
+		assertTrue(tester.signIn("reader", "reader"));
+		OrientDbWebSession session = tester.getSession();
+		assertTrue(session.getUser() == session.getUser());
+		Roles roles = session.getRoles();
+		assertTrue(roles.hasRole("reader"));
+		assertEquals(roles, session.getRoles());
+		roles.add("modified");
+		assertFalse(session.getRoles().hasRole("modified"));
+		roles.remove("modified");
+		OPermissionDecisionCache.invalidateAll();
+		Roles rebuilt = session.getRoles();
+		assertFalse(roles == rebuilt);
+		assertEquals(roles, rebuilt);
+		tester.signOut();
+		assertFalse(session.getRoles().hasRole("reader"));
+	}
+	
+	@Test
+	public void testTransactionRequestStart()
+	{
+		WicketOrientDbTester tester = wicket.getTester();
+		assertTrue(tester.signIn("reader", "reader"));
+		AtomicInteger resolutions = new AtomicInteger();
+		TransactionRequestCycleListener listener = new TransactionRequestCycleListener() {
+			@Override
+			protected void resolveDatabaseUser(OrientDbWebSession session, ODatabaseDocumentInternal db) {
+				resolutions.incrementAndGet();
+				super.resolveDatabaseUser(session, db);
+			}
+		};
+		RequestCycle cycle = tester.getRequestCycle();
+		ODatabaseDocumentInternal db = tester.getDatabaseDocumentInternal();
+		assertTrue(listener.isDatabaseUserActual(tester.getSession(), db));
+		for(int i=0; i<100; i++) {
+			listener.start(cycle);
+			db.commit();
+		}
+		//User of pooled database is actual: neither user of the session nor security is looked up
+		assertEquals(0, resolutions.get());
+		assertEquals("reader", db.getUser().getName());
+		db.setUser(null);
+		assertFalse(listener.isDatabaseUserActual(tester.getSession(), db));
+		listener.start(cycle);
+		db.commit();
+		assertEquals(1, resolutions.get());
+		assertEquals("reader", db.getUser().getName());
+	}
+	
+	@ReadOnlyResource
+	private static class ReadOnlyTestResource extends ByteArrayResource {
+		private static final long serialVersionUID = 1L;
+
+		public ReadOnlyTestResource() {
+			super("text/plain", new byte[0]);
+		}
+	}
+	
+	@ReadOnlyResource
+	private static class ReadOnlyTestPage extends WebPage {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	@Test
+	public void testLazyTransactions()
+	{
+		WicketOrientDbTester tester = wicket.getTester();
+		TransactionRequestCycleListener listener = new TransactionRequestCycleListener().setLazyTransactions(true);
+		RequestCycle cycle = tester.getRequestCycle();
+		ODatabaseDocument db = tester.getDatabase();
+		boolean inProgress = listener.isInProgress(cycle);
+		String method = tester.getRequest().getMethod();
+		if(db.getTransaction().isActive()) db.commit();
+		try {
+			//GET of a read-only page: no transaction at all
+			tester.getRequest().setMethod("GET");
+			listener.setInProgress(cycle, false);
+			listener.onRequestHandlerResolved(cycle, new RenderPageRequestHandler(new PageProvider(ReadOnlyTestPage.class)));
+			assertFalse(db.getTransaction().isActive());
+			listener.onEndRequest(cycle);
+			assertEquals(0, listener.getOpenedTransactionsCount());
+			assertEquals(1, listener.getAvoidedTransactionsCount());
+			
+			//GET of a page which is not marked as read-only: data might be changed not only through models
+			listener.setInProgress(cycle, false);
+			listener.onRequestHandlerResolved(cycle, new RenderPageRequestHandler(new PageProvider(OrientDbTestPage.class)));
+			assertTrue(db.getTransaction().isActive());
+			listener.onEndRequest(cycle);
+			assertFalse(db.getTransaction().isActive());
+			assertEquals(1, listener.getOpenedTransactionsCount());
+			assertEquals(1, listener.getAvoidedTransactionsCount());
+			
+			//Form submission to a read-only page always has transaction
+			tester.getRequest().setMethod("POST");
+			listener.setInProgress(cycle, false);
+			listener.onRequestHandlerResolved(cycle, new RenderPageRequestHandler(new PageProvider(ReadOnlyTestPage.class)));
+			assertTrue(db.getTransaction().isActive());
+			assertFalse(TransactionRequestCycleListener.beginPendingTransaction());
+			listener.onEndRequest(cycle);
+			assertEquals(2, listener.getOpenedTransactionsCount());
+			assertEquals(1, listener.getAvoidedTransactionsCount());
+			
+			//Read-only resource: transaction is begun upon unexpected change of a model
+			listener.setInProgress(cycle, false);
+			listener.onRequestHandlerResolved(cycle, new ResourceReferenceRequestHandler(new ResourceReference("readOnly") {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public IResource getResource() {
+					return new ReadOnlyTestResource();
+				}
+			}));
+			assertFalse(db.getTransaction().isActive());
+			new ODocumentModel().setObject(new ODocument());
+			assertTrue(db.getTransaction().isActive());
+			listener.onEndRequest(cycle);
+			assertFalse(db.getTransaction().isActive());
+			assertEquals(3, listener.getOpenedTransactionsCount());
+			assertEquals(1, listener.getAvoidedTransactionsCount());
+			
+			//Read-only resource without changes
+			listener.setInProgress(cycle, false);
+			listener.onRequestHandlerResolved(cycle, new ResourceReferenceRequestHandler(new ResourceReference("readOnly") {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public IResource getResource() {
+					return new ReadOnlyTestResource();
+				}
+			}));
+			assertFalse(db.getTransaction().isActive());
+			listener.onEndRequest(cycle);
+			assertEquals(3, listener.getOpenedTransactionsCount());
+			assertEquals(2, listener.getAvoidedTransactionsCount());
+		} finally {
+			tester.getRequest().setMethod(method);
+			listener.setInProgress(cycle, inProgress);
+		}
+	}
+	
+	@IdempotentRequest
+	private static class IdempotentTestPage extends WebPage {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	@Test
+	public void testRetryableHandlers()
+	{
+		TransactionRetryPolicy policy = new TransactionRetryPolicy();
+		assertTrue(policy.isRetryable(new RenderPageRequestHandler(new PageProvider(IdempotentTestPage.class))));
+		assertFalse(policy.isRetryable(new RenderPageRequestHandler(new PageProvider(OrientDbTestPage.class))));
+		//Existing page would be changed by the failed attempt: so it's not executed again
+		IdempotentTestPage page = new IdempotentTestPage();
+		assertFalse(policy.isRetryable(new RenderPageRequestHandler(new PageProvider(page))));
+		assertFalse(policy.isRetryable(new ListenerRequestHandler(new PageAndComponentProvider(page, page))));
+		//Page is created again for replay
+		RenderPageRequestHandler handler = new RenderPageRequestHandler(new PageProvider(IdempotentTestPage.class));
+		IRequestHandler replay = policy.toReplayHandler(handler);
+		assertNotSame(handler, replay);
+		assertEquals(IdempotentTestPage.class, ((RenderPageRequestHandler) replay).getPageClass());
+		assertFalse(((RenderPageRequestHandler) replay).isPageInstanceCreated());
+	}
+	
+	@Test
+	public void testTransactionRetry()
+	{
+		WicketOrientDbTester tester = wicket.getTester();
+		assertTrue(tester.signIn("admin", "admin"));
+		TransactionRetryPolicy policy = new TransactionRetryPolicy(2, 1, 5);
+		TransactionRequestCycleListener listener = new TransactionRequestCycleListener().setRetryPolicy(policy);
+		RequestCycle cycle = tester.getRequestCycle();
+		ODatabaseDocument db = tester.getDatabase();
+		boolean inProgress = listener.isInProgress(cycle);
+		if(db.getTransaction().isActive()) db.commit();
+		ODocument doc = new ODocument().field("counter", 0);
+		db.save(doc, db.getClusterNameById(db.getDefaultClusterId()));
+		ORID rid = doc.getIdentity();
+		AtomicInteger invocations = new AtomicInteger();
+		try {
+			//Idempotent handler is executed again
+			ODocument stale = doc.copy();
+			doc.field("counter", 1).save();
+			listener.setInProgress(cycle, false);
+			IIdempotentRequestHandler idempotent = c -> {
+				invocations.incrementAndGet();
+				ODocument fresh = db.load(rid);
+				fresh.field("counter", 2).save();
+			};
+			listener.onRequestHandlerResolved(cycle, idempotent);
+			stale.field("counter", 3).save();
+			//Retry happens right after execution of the handler: not at the end of the request
+			listener.onRequestHandlerExecuted(cycle, idempotent);
+			assertEquals(1, invocations.get());
+			assertTrue(db.getTransaction().isActive());
+			listener.onEndRequest(cycle);
+			assertEquals(1, policy.getConflictsCount());
+			assertEquals(1, policy.getRetriesCount());
+			assertEquals(1L, (long) policy.getHotspots().get("? "+rid));
+			assertEquals(2, (int) db.<ODocument>load(rid).field("counter"));
+			
+			//Not idempotent handler fails
+			stale = db.<ODocument>load(rid).copy();
+			doc = db.load(rid);
+			doc.field("counter", 4).save();
+			listener.setInProgress(cycle, false);
+			listener.onRequestHandlerResolved(cycle, c -> invocations.incrementAndGet());
+			stale.field("counter", 5).save();
+			try {
+				listener.onEndRequest(cycle);
+				fail("OConcurrentModificationException is expected");
+			} catch (OConcurrentModificationException e) {
+				//Expected
+			}
+			assertEquals(1, invocations.get());
+			assertEquals(2, policy.getConflictsCount());
+			assertEquals(1, policy.getRetriesCount());
+			assertEquals(2L, (long) policy.getHotspots().get("? "+rid));
+			
+			//Failed replay rolls back its transaction
+			stale = db.<ODocument>load(rid).copy();
+			doc = db.load(rid);
+			doc.field("counter", 6).save();
+			listener.setInProgress(cycle, false);
+			IIdempotentRequestHandler failing = c -> {
+				if(invocations.incrementAndGet()>2) {
+					db.<ODocument>load(rid).field("counter", 7).save();
+					throw new IllegalStateException("Replay failed");
+				}
+			};
+			listener.onRequestHandlerResolved(cycle, failing);
+			failing.respond(cycle);
+			stale.field("counter", 8).save();
+			try {
+				listener.onRequestHandlerExecuted(cycle, failing);
+				fail("IllegalStateException is expected");
+			} catch (IllegalStateException e) {
+				//Expected
+			}
+			assertEquals(3, invocations.get());
+			assertFalse(db.getTransaction().isActive());
+			assertEquals(6, (int) db.<ODocument>load(rid).field("counter"));
+		} finally {
+			if(db.getTransaction().isActive()) db.rollback();
+			db.delete(rid);
+			listener.setInProgress(cycle, inProgress);
+		}
+	}
+	
+	@Test
+	public void testImpersonatingDatabaseFactory()
+	{
+		WicketOrientDbTester tester = wicket.getTester();
+		ODatabaseThreadLocalFactory defaultFactory = Orient.instance().getDatabaseThreadFactory();
+		ImpersonatingODatabaseThreadLocalFactory factory = new ImpersonatingODatabaseThreadLocalFactory(tester.getApplication());
+		ODatabaseDocumentInternal currentDb = ODatabaseRecordThreadLocal.instance().getIfDefined();
+		try {
+			ODatabaseDocumentInternal db = factory.getThreadDatabase();
+			assertEquals("reader", db.getUser().getName());
+			assertFalse(OSecurityHelper.isAllowed(ORule.ResourceGeneric.SCHEMA, null, OrientPermission.UPDATE));
+			assertTrue(db.getHooks().keySet().stream().anyMatch(h -> h instanceof OUserCatchPasswordHook));
+			db.close();
+			db = factory.authenticate("admin", "admin");
+			assertEquals("admin", db.getUser().getName());
+			db.close();
+			//Pooled database keeps previous user, but it should be reset
+			db = factory.getThreadDatabase();
+			assertEquals("reader", db.getUser().getName());
+			db.close();
+			try {
+				factory.authenticate("admin", "wrong");
+				fail("OSecurityAccessException is expected");
+			} catch (OSecurityAccessException e) {
+				assertEquals(tester.getApplication().getOrientDbSettings().getDbName(), e.getDatabaseName());
+			}
+			assertEquals(4, factory.getPoolStatistics().getAcquiredCount());
+			
+			tester.getApplication().getOrientDbSettings().setDatabaseThreadLocalFactory(factory);
+			if(currentDb!=null) currentDb.activateOnCurrentThread();
+			assertTrue(tester.signIn("admin", "admin"));
+			assertEquals("admin", tester.getDatabaseSession().getUser().getName());
+			tester.signOut();
+			assertFalse(tester.signIn("admin", "wrong"));
+		} finally {
+			tester.getApplication().getOrientDbSettings().setDatabaseThreadLocalFactory(defaultFactory);
+			if(currentDb!=null) currentDb.activateOnCurrentThread();
+			factory.close();
+		}
+	}
+	
+	@Test
+	public void testVerifiedCredentialsCache()
+	{
+		VerifiedCredentialsCache cache = new VerifiedCredentialsCache(2, 1, TimeUnit.MINUTES);
+		assertFalse(cache.isVerified("admin", "admin"));
+		cache.verified("admin", "admin");
+		assertTrue(cache.isVerified("admin", "admin"));
+		assertFalse(cache.isVerified("admin", "wrong"));
+		assertFalse(cache.isVerified("reader", "admin"));
+		cache.invalidate("admin");
+		assertFalse(cache.isVerified("admin", "admin"));
+		
+		WicketOrientDbTester tester = wicket.getTester();
+		OrientDbWebSession session = tester.getSession();
+		cache = VerifiedCredentialsCache.get();
+		cache.invalidateAll();
+		String authorization = "Basic "+Base64.getEncoder().encodeToString("admin:admin".getBytes());
+		tester.getRequest().setHeader(LazyAuthorizationRequestCycleListener.AUTHORIZATION_HEADER, authorization);
+		tester.startPage(OrientDbTestPage.class);
+		assertTrue(cache.isVerified("admin", "admin"));
+		assertEquals("admin", session.getUsername());
+		
+		//Verified credentials are used without authentication
+		tester.signOut();
+		tester.getRequest().setHeader(LazyAuthorizationRequestCycleListener.AUTHORIZATION_HEADER, authorization);
+		tester.startPage(OrientDbTestPage.class);
+		assertTrue(session.isSignedIn());
+		assertEquals("admin", session.getUsername());
+		assertEquals("admin", session.getUser().getName());
+		assertEquals("admin", tester.getDatabaseSession().getUser().getName());
+		
+		//Any change of a user invalidates verified credentials
+		DBClosure.sudoConsumer(db -> {
+			ODocument admin = db.getMetadata().getSecurity().getUser("admin").getDocument();
+			admin.setDirty();
+			admin.save();
+		});
+		assertFalse(cache.isVerified("admin", "admin"));
+		
+		//Credentials verified by concurrent request before commit are invalidated after actual save
+		VerifiedCredentialsCache appCache = cache;
+		DBClosure.sudoConsumer(db -> {
+			db.begin();
+			ODocument admin = db.getMetadata().getSecurity().getUser("admin").getDocument();
+			admin.setDirty();
+			admin.save();
+			appCache.verified("admin", "admin");
+			db.commit();
+		});
+		assertFalse(cache.isVerified("admin", "admin"));
+	}
 }